@@ -36,6 +36,10 @@ CREATE TABLE IF NOT EXISTS distributors (
     created_at    TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
     );
 
+-- lookup del token ad ogni richiesta del distributore (DistributorTokenFilter, su cache miss)
+CREATE INDEX IF NOT EXISTS idx_distributors_security_token
+    ON distributors(security_token);
+
 -- 3) Stato forniture (1 riga per distributore)
 CREATE TABLE IF NOT EXISTS distributor_supplies (
                                                     distributor_id BIGINT PRIMARY KEY,
@@ -79,6 +83,27 @@ CREATE INDEX IF NOT EXISTS idx_conn_customer_active
 CREATE INDEX IF NOT EXISTS idx_conn_distributor_active
     ON customer_connections(distributor_id, disconnected_at);
 
+-- 5b) Connessioni attive (materializzate): una riga per distributore, al più una per cliente.
+--     Le letture "chi è connesso" diventano letture per chiave; customer_connections resta solo storico.
+--     Mantenuta da ConnectionDAO.connect/disconnect nella stessa transazione dello storico.
+CREATE TABLE IF NOT EXISTS active_connections (
+                                                  distributor_id BIGINT PRIMARY KEY,
+                                                  customer_id    BIGINT NOT NULL UNIQUE,
+                                                  connection_id  BIGINT NOT NULL, -- riga di storico in customer_connections
+                                                  connected_at   TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                                                  CONSTRAINT fk_active_distributor
+                                                  FOREIGN KEY (distributor_id) REFERENCES distributors(id) ON DELETE CASCADE,
+    CONSTRAINT fk_active_customer
+    FOREIGN KEY (customer_id) REFERENCES users(id) ON DELETE CASCADE
+    );
+
+-- Allineamento iniziale dalle connessioni aperte nello storico (idempotente: la più recente vince)
+INSERT IGNORE INTO active_connections(distributor_id, customer_id, connection_id, connected_at)
+SELECT cc.distributor_id, cc.customer_id, cc.id, cc.connected_at
+FROM customer_connections cc
+WHERE cc.disconnected_at IS NULL
+ORDER BY cc.id DESC;
+
 -- 6) Ricariche credito
 CREATE TABLE IF NOT EXISTS topups (
                                       id          BIGINT AUTO_INCREMENT PRIMARY KEY,
@@ -114,6 +139,145 @@ CREATE TABLE IF NOT EXISTS purchases (
     FOREIGN KEY (beverage_id) REFERENCES beverages(id)
     );
 
+-- 9) Outbox verso CoffeeMonitor: mutazioni scritte nella stessa transazione della modifica sul DB,
+--    inviate in background da MonitorOutboxDispatcher (in ordine per distributore, con retry)
+CREATE TABLE IF NOT EXISTS monitor_outbox (
+                                              id               BIGINT AUTO_INCREMENT PRIMARY KEY,
+                                              distributor_code VARCHAR(50) NOT NULL, -- niente FK: anche le DELETE vanno inoltrate
+    op               ENUM('UPSERT','STATUS','DELETE','HEARTBEAT') NOT NULL,
+    location_name    VARCHAR(120) NULL,
+    status           VARCHAR(20)  NULL,
+    attempts         INT NOT NULL DEFAULT 0,
+    next_attempt_at  TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_error       VARCHAR(255) NULL,
+    dead             BOOLEAN NOT NULL DEFAULT FALSE, -- tentativi esauriti: resta per ispezione
+    created_at       TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+    );
+
+CREATE INDEX IF NOT EXISTS idx_outbox_pending
+    ON monitor_outbox(dead, id);
+
+-- 10) Versioni dei cataloghi: incrementate dai trigger a ogni modifica della tabella,
+--     lette dalla cache in memoria (BeverageCatalog) per capire quando ricaricare
+CREATE TABLE IF NOT EXISTS catalog_versions (
+                                                name    VARCHAR(50) PRIMARY KEY,
+                                                version BIGINT NOT NULL DEFAULT 0
+    );
+
+INSERT IGNORE INTO catalog_versions(name, version) VALUES ('beverages', 0);
+
+CREATE TRIGGER IF NOT EXISTS trg_beverages_ai AFTER INSERT ON beverages FOR EACH ROW
+    UPDATE catalog_versions SET version = version + 1 WHERE name = 'beverages';
+
+CREATE TRIGGER IF NOT EXISTS trg_beverages_au AFTER UPDATE ON beverages FOR EACH ROW
+    UPDATE catalog_versions SET version = version + 1 WHERE name = 'beverages';
+
+CREATE TRIGGER IF NOT EXISTS trg_beverages_ad AFTER DELETE ON beverages FOR EACH ROW
+    UPDATE catalog_versions SET version = version + 1 WHERE name = 'beverages';
+
+-- 11) Acquisto in un solo round trip (PURCHASE_MODE=procedure)
+--     Stessi passi di DistributorScreenDAO.performPurchase, eseguiti lato server: il lock sulla connessione
+--     resta aperto per il tempo delle istruzioni, non per sei round trip di rete.
+--     Restituisce una riga (error_code, new_credit): error_code NULL = acquisto riuscito,
+--     altrimenti uno dei codici ERR_* del DAO (stessi nomi, 1:1).
+DROP PROCEDURE IF EXISTS sp_purchase;
+
+DELIMITER //
+CREATE PROCEDURE sp_purchase(
+    IN p_distributor_code VARCHAR(50),
+    IN p_beverage_id      BIGINT,
+    IN p_sugar_qty        INT,
+    IN p_coffee_need      INT,
+    IN p_milk_need        INT,
+    IN p_cups_need        INT
+)
+proc: BEGIN
+    DECLARE v_customer_id    BIGINT DEFAULT NULL;
+    DECLARE v_distributor_id BIGINT DEFAULT NULL;
+    DECLARE v_price          DECIMAL(10,2) DEFAULT NULL;
+    DECLARE v_bev_found      INT DEFAULT 0;
+    DECLARE v_credit         DECIMAL(10,2) DEFAULT NULL;
+
+    -- SELECT ... INTO senza righe: lascia le variabili a NULL (controllate sotto)
+    DECLARE CONTINUE HANDLER FOR NOT FOUND BEGIN END;
+    DECLARE EXIT HANDLER FOR SQLEXCEPTION
+        BEGIN
+            ROLLBACK;
+            RESIGNAL;
+        END;
+
+    START TRANSACTION;
+
+    -- 1) lock connessione attiva
+    SELECT ac.customer_id, ac.distributor_id INTO v_customer_id, v_distributor_id
+    FROM distributors d
+             JOIN active_connections ac ON ac.distributor_id = d.id
+    WHERE d.code = p_distributor_code
+    FOR UPDATE;
+
+    IF v_customer_id IS NULL THEN
+        ROLLBACK;
+        SELECT 'ERR_NO_CUSTOMER_CONNECTED' AS error_code, NULL AS new_credit;
+        LEAVE proc;
+    END IF;
+
+    -- 2) prezzo bevanda
+    SELECT price, 1 INTO v_price, v_bev_found
+    FROM beverages
+    WHERE id = p_beverage_id AND is_active = 1;
+
+    IF v_bev_found = 0 THEN
+        ROLLBACK;
+        SELECT 'ERR_INVALID_BEVERAGE' AS error_code, NULL AS new_credit;
+        LEAVE proc;
+    END IF;
+
+    IF v_price IS NULL OR v_price <= 0 THEN
+        ROLLBACK;
+        SELECT 'ERR_INVALID_PRICE' AS error_code, NULL AS new_credit;
+        LEAVE proc;
+    END IF;
+
+    -- 3) scorte (non devono andare sotto zero)
+    UPDATE distributor_supplies
+    SET coffee_level = coffee_level - p_coffee_need,
+        milk_level   = milk_level   - p_milk_need,
+        sugar_level  = sugar_level  - p_sugar_qty,
+        cups_level   = cups_level   - p_cups_need
+    WHERE distributor_id = v_distributor_id
+      AND coffee_level >= p_coffee_need
+      AND milk_level   >= p_milk_need
+      AND sugar_level  >= p_sugar_qty
+      AND cups_level   >= p_cups_need;
+
+    IF ROW_COUNT() <> 1 THEN
+        ROLLBACK;
+        SELECT 'ERR_OUT_OF_STOCK' AS error_code, NULL AS new_credit;
+        LEAVE proc;
+    END IF;
+
+    -- 4) credito
+    UPDATE users SET credit = credit - v_price
+    WHERE id = v_customer_id AND credit >= v_price;
+
+    IF ROW_COUNT() <> 1 THEN
+        ROLLBACK;
+        SELECT 'ERR_INSUFFICIENT_CREDIT' AS error_code, NULL AS new_credit;
+        LEAVE proc;
+    END IF;
+
+    -- 5) storico
+    INSERT INTO purchases(customer_id, distributor_id, beverage_id, sugar_qty, price_paid)
+    VALUES (v_customer_id, v_distributor_id, p_beverage_id, p_sugar_qty, v_price);
+
+    -- 6) nuovo credito
+    SELECT credit INTO v_credit FROM users WHERE id = v_customer_id;
+
+    COMMIT;
+    SELECT NULL AS error_code, v_credit AS new_credit;
+END //
+DELIMITER ;
+
 -- ------------------------------------------------------------
 -- Dati minimi di test (idempotenti)
 -- ------------------------------------------------------------
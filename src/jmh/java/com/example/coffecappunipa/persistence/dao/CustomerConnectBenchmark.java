@@ -0,0 +1,74 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.model.User;
+import com.example.coffecappunipa.persistence.util.DbConnectionManager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connect del cliente: vecchio flusso della servlet (findByUsername, findIdByCode, findStatusByCode,
+ * distributore attuale, connect: cinque prestiti dal pool e una transazione) contro connectCustomer
+ * (id già in sessione, una transazione, cinque statement).
+ * Serve il DB configurato in application.properties con i dati demo (cliente1 su UNIPA-001, ACTIVE);
+ * ogni invocazione aggiunge una riga di storico in customer_connections.
+ * Avvio: mvn -Pjmh test-compile exec:exec -Djmh.include=CustomerConnectBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CustomerConnectBenchmark {
+
+    @Param({"cliente1"})
+    public String username;
+
+    @Param({"UNIPA-001"})
+    public String code;
+
+    private final UserDAO userDAO = new UserDAO();
+    private final DistributorDAO distributorDAO = new DistributorDAO();
+    private final ConnectionDAO connectionDAO = new ConnectionDAO();
+
+    private long customerId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Optional<User> user = userDAO.findByUsername(username);
+        if (user.isEmpty()) throw new IllegalStateException("utente demo mancante: " + username);
+        customerId = user.get().getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionDAO.disconnect(customerId);
+        DbConnectionManager.shutdown();
+    }
+
+    @Benchmark
+    public String legacyFlow() {
+        Optional<User> user = userDAO.findByUsername(username);
+        if (user.isEmpty()) throw new IllegalStateException("utente non trovato");
+
+        Long distributorId = distributorDAO.findIdByCode(code);
+        if (distributorId == null) throw new IllegalStateException("distributore non trovato");
+
+        String status = distributorDAO.findStatusByCode(code);
+        if (!"ACTIVE".equalsIgnoreCase(status)) throw new IllegalStateException("distributore non attivo: " + status);
+
+        String previousCode = connectionDAO.findActiveDistributorCodeByCustomerId(user.get().getId());
+        connectionDAO.connect(user.get().getId(), distributorId);
+        return previousCode;
+    }
+
+    @Benchmark
+    public String consolidated() {
+        ConnectionDAO.ConnectResult r = connectionDAO.connectCustomer(customerId, code, false);
+        if (r.error != null) throw new IllegalStateException(r.error);
+        return r.previousCode;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.coffecappunipa.web.json;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto tra il vecchio schema delle servlet (StringBuilder + escJson con String.replace, poi write)
+ * e JsonWriter che scrive in streaming sullo stesso Writer.
+ * Avvio: mvn -Pjmh test-compile exec:exec   (aggiungere -prof gc negli argomenti per vedere le allocazioni)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonWriterBenchmark {
+
+    public static class Row {
+        final long id;
+        final String name;
+        final BigDecimal price;
+
+        Row(long id, String name, BigDecimal price) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+        }
+    }
+
+    @Param({"10", "1000"})
+    public int rows;
+
+    private List<Row> data;
+    private Writer sink;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            // un nome su dieci con caratteri da escapare
+            String name = (i % 10 == 0) ? "Caffè \"speciale\" \\ n." + i : "Cappuccino grande n." + i;
+            data.add(new Row(i, name, new BigDecimal("0.80").add(BigDecimal.valueOf(i % 7, 1))));
+        }
+        sink = new BlackholeWriter(bh);
+    }
+
+    @Benchmark
+    public void legacyStringBuilder() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"ok\":true,\"items\":[");
+        for (int i = 0; i < data.size(); i++) {
+            Row b = data.get(i);
+            if (i > 0) json.append(",");
+            json.append("{")
+                    .append("\"id\":").append(b.id).append(",")
+                    .append("\"name\":\"").append(legacyEscJson(b.name)).append("\",")
+                    .append("\"price\":").append(b.price == null ? "0.00" : b.price.toPlainString())
+                    .append("}");
+        }
+        json.append("]}");
+        sink.write(json.toString());
+    }
+
+    @Benchmark
+    public void streamingJsonWriter() throws IOException {
+        JsonWriter json = new JsonWriter(sink);
+        json.beginObject().field("ok", true).name("items").beginArray();
+        for (Row b : data) {
+            json.beginObject()
+                    .field("id", b.id)
+                    .field("name", b.name)
+                    .field("price", b.price)
+                    .endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    private static String legacyEscJson(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Writer che consuma i caratteri senza accumularli (come il buffer riciclato della risposta)
+    private static final class BlackholeWriter extends Writer {
+        private final Blackhole bh;
+
+        BlackholeWriter(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int c) {
+            bh.consume(c);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            bh.consume(str);
+            bh.consume(len);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            bh.consume(cbuf);
+            bh.consume(len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.coffecappunipa.web.servlet;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carico HTTP contro l'app in esecuzione, per confrontare thread di piattaforma e virtual thread
+ * (VIRTUAL_THREADS=false/true, build -Pjava21) a parità di pool DB.
+ * Di default GET /api/distributor/poll: autenticazione via token + una query JDBC bloccante per richiesta.
+ * Serve l'app avviata con il DB demo e il token di un distributore già inizializzato (boot).
+ * Avvio: mvn -Pjmh test-compile exec:exec -Djmh.include=HttpLoadBenchmark
+ *        (parametri: -p token=... -p baseUrl=... ; concorrenza con -t, es. -t 200)
+ * Memoria e thread del server: sezione "jvm" di /api/manager/diagnostics durante il carico.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@Threads(200)
+@State(Scope.Benchmark)
+public class HttpLoadBenchmark {
+
+    @Param({"http://localhost:8080"})
+    public String baseUrl;
+
+    @Param({"/api/distributor/poll"})
+    public String path;
+
+    @Param({""})
+    public String token;
+
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (token.isBlank()) throw new IllegalStateException("token distributore mancante: -p token=...");
+        client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(10))
+                .header("X-Distributor-Auth", token)
+                .GET()
+                .build();
+    }
+
+    @Benchmark
+    public int request() throws IOException, InterruptedException {
+        HttpResponse<Void> res = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (res.statusCode() != 200) throw new IllegalStateException("HTTP " + res.statusCode());
+        return res.statusCode();
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fotografia in memoria del listino bevande attive, condivisa da findActive()/findById() e da /api/distributor/beverages.
+ * - al massimo ogni CHECK_MS si legge la versione in catalog_versions (una riga per PK, la incrementano i trigger su beverages)
+ * - solo se la versione è cambiata si ricarica il listino; se la tabella delle versioni manca si ricarica a tempo
+ * - il controllo lo fa un solo thread: gli altri nel frattempo servono la fotografia corrente
+ * La versione esposta ai client è locale e cresce solo quando il contenuto cambia davvero; l'ETag è l'hash del contenuto.
+ */
+public final class BeverageCatalog {
+
+    private static final long CHECK_MS = envLong("BEVERAGE_CATALOG_CHECK_MS", 5_000);
+
+    public static final class Snapshot {
+        public final long version;
+        public final List<BeverageDAO.BeverageRow> items;
+        public final Map<Long, BeverageDAO.BeverageRow> byId;
+        public final String etag;
+        final Long dbVersion;
+        final String hash;
+        volatile long checkedAtMillis;
+
+        private Snapshot(long version, List<BeverageDAO.BeverageRow> items, Long dbVersion, String hash) {
+            this.version = version;
+            this.items = Collections.unmodifiableList(items);
+            Map<Long, BeverageDAO.BeverageRow> m = new HashMap<>();
+            for (BeverageDAO.BeverageRow b : items) m.put(b.id, b);
+            this.byId = Collections.unmodifiableMap(m);
+            this.etag = "\"bev-" + version + "-" + hash + "\"";
+            this.dbVersion = dbVersion;
+            this.hash = hash;
+            this.checkedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    private static final BeverageDAO dao = new BeverageDAO();
+
+    private static final ReentrantLock checkLock = new ReentrantLock();
+    private static volatile Snapshot current;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong checks = new AtomicLong();
+    private static final AtomicLong reloads = new AtomicLong();
+
+    private BeverageCatalog() {}
+
+    /**
+     * Fotografia corrente; la prima chiamata (o quella dopo invalidate) aspetta il caricamento.
+     * @throws DaoException se il listino non è mai stato caricato e il DB non risponde
+     */
+    public static Snapshot get() {
+        Snapshot s = current;
+        if (s != null && System.currentTimeMillis() - s.checkedAtMillis < CHECK_MS) {
+            hits.incrementAndGet();
+            return s;
+        }
+
+        if (s != null) {
+            // controllo già in corso da parte di un altro thread: si serve la copia che c'è
+            if (!checkLock.tryLock()) {
+                hits.incrementAndGet();
+                return s;
+            }
+        } else {
+            checkLock.lock();
+        }
+
+        try {
+            return refresh(current);
+        } finally {
+            checkLock.unlock();
+        }
+    }
+
+    /**
+     * Forza il ricontrollo alla prossima get() (per le modifiche al listino fatte dall'app stessa).
+     */
+    public static void invalidate() {
+        Snapshot s = current;
+        if (s != null) s.checkedAtMillis = 0;
+    }
+
+    private static Snapshot refresh(Snapshot s) {
+        long now = System.currentTimeMillis();
+        if (s != null && now - s.checkedAtMillis < CHECK_MS) return s; // aggiornata mentre si aspettava il lock
+
+        checks.incrementAndGet();
+        Long dbVersion = dao.queryCatalogVersion();
+        if (s != null && dbVersion != null && dbVersion.equals(s.dbVersion)) {
+            s.checkedAtMillis = now;
+            return s;
+        }
+
+        List<BeverageDAO.BeverageRow> items;
+        try {
+            items = dao.queryActive();
+        } catch (DaoException ex) {
+            if (s == null) throw ex;
+            // DB momentaneamente giù: si continua col listino noto e si riprova al prossimo intervallo
+            s.checkedAtMillis = now;
+            return s;
+        }
+        reloads.incrementAndGet();
+
+        String hash = contentHash(items);
+        Snapshot next;
+        if (s != null && s.hash.equals(hash)) {
+            next = new Snapshot(s.version, items, dbVersion, hash);
+        } else {
+            next = new Snapshot(s == null ? 1 : s.version + 1, items, dbVersion, hash);
+        }
+        current = next;
+        return next;
+    }
+
+    private static String contentHash(List<BeverageDAO.BeverageRow> items) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (BeverageDAO.BeverageRow b : items) {
+                String line = b.id + "\t" + b.name + "\t" + (b.price == null ? "" : b.price.toPlainString()) + "\n";
+                md.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(md.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Stats getStats() {
+        Snapshot s = current;
+        Stats st = new Stats();
+        st.hits = hits.get();
+        st.checks = checks.get();
+        st.reloads = reloads.get();
+        st.version = (s == null) ? 0 : s.version;
+        st.dbVersion = (s == null || s.dbVersion == null) ? -1 : s.dbVersion;
+        st.size = (s == null) ? 0 : s.items.size();
+        st.checkMs = CHECK_MS;
+        return st;
+    }
+
+    public static class Stats {
+        public long hits;
+        public long checks;
+        public long reloads;
+        public long version;
+        public long dbVersion;
+        public int size;
+        public long checkMs;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -23,7 +23,20 @@ public class BeverageDAO {
         }
     }
 
+    /**
+     * Listino attivo (ordinato per nome) servito dalla fotografia in memoria: niente query per chiamata.
+     */
     public List<BeverageRow> findActive() {
+        return BeverageCatalog.get().items;
+    }
+
+    public Optional<BeverageRow> findById(long beverageId) {
+        return Optional.ofNullable(BeverageCatalog.get().byId.get(beverageId));
+    }
+
+    // Query vere e proprie: le usa solo BeverageCatalog per (ri)costruire la fotografia
+
+    List<BeverageRow> queryActive() {
         String sql = "SELECT id, name, price FROM beverages WHERE is_active = 1 ORDER BY name";
         List<BeverageRow> out = new ArrayList<>();
 
@@ -41,29 +54,25 @@ public class BeverageDAO {
             return out;
 
         } catch (SQLException e) {
-            throw new DaoException("Errore BeverageDAO.findActive()", e);
+            throw new DaoException("Errore BeverageDAO.queryActive()", e);
         }
     }
 
-    public Optional<BeverageRow> findById(long beverageId) {
-        String sql = "SELECT id, name, price FROM beverages WHERE id = ? AND is_active = 1";
+    /**
+     * Versione corrente del listino (tabella catalog_versions, aggiornata dai trigger su beverages).
+     * null se la tabella non esiste ancora (schema non aggiornato): in quel caso la cache ricarica a tempo.
+     */
+    Long queryCatalogVersion() {
+        String sql = "SELECT version FROM catalog_versions WHERE name = 'beverages'";
 
         try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setLong(1, beverageId);
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
 
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return Optional.empty();
-                return Optional.of(new BeverageRow(
-                        rs.getLong("id"),
-                        rs.getString("name"),
-                        rs.getBigDecimal("price")
-                ));
-            }
+            return rs.next() ? rs.getLong(1) : null;
 
         } catch (SQLException e) {
-            throw new DaoException("Errore BeverageDAO.findById()", e);
+            return null;
         }
     }
 }
@@ -7,38 +7,114 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 public class ConnectionDAO {
 
-    public void connect(long customerId, long distributorId) {
-        String closePrev = "UPDATE customer_connections SET disconnected_at = NOW() " +
-                "WHERE customer_id = ? AND disconnected_at IS NULL";
+    // Esiti STABILI di connectCustomer (da mappare nella servlet)
+    public static final String ERR_USER_NOT_FOUND        = "ERR_USER_NOT_FOUND";
+    public static final String ERR_DISTRIBUTOR_NOT_FOUND = "ERR_DISTRIBUTOR_NOT_FOUND";
+    public static final String ERR_MAINTENANCE           = "ERR_MAINTENANCE";
+    public static final String ERR_FAULT                 = "ERR_FAULT";
+    public static final String ERR_RUNTIME_FAULT         = "ERR_RUNTIME_FAULT";
+
+    public static class ConnectResult {
+        public String error;        // null = connesso
+        public String previousCode; // distributore liberato (se il cliente era connesso altrove)
+
+        ConnectResult(String error, String previousCode) {
+            this.error = error;
+            this.previousCode = previousCode;
+        }
+    }
+
+    // Chiude nello storico le connessioni attive del cliente e del distributore, poi libera le righe attive
+    private static final String CLOSE_ACTIVE_SQL = "UPDATE customer_connections cc " +
+            "JOIN active_connections ac ON ac.connection_id = cc.id " +
+            "SET cc.disconnected_at = NOW() " +
+            "WHERE ac.customer_id = ? OR ac.distributor_id = ?";
 
-        String closeDistributorPrev = "UPDATE customer_connections SET disconnected_at = NOW() " +
-                "WHERE distributor_id = ? AND disconnected_at IS NULL";
+    private static final String DELETE_ACTIVE_SQL = "DELETE FROM active_connections WHERE customer_id = ? OR distributor_id = ?";
 
-        String insertNew = "INSERT INTO customer_connections(customer_id, distributor_id) VALUES(?, ?)";
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO customer_connections(customer_id, distributor_id) VALUES(?, ?)";
 
+    private static final String INSERT_ACTIVE_SQL = "INSERT INTO active_connections(distributor_id, customer_id, connection_id) VALUES(?, ?, ?)";
+
+    /**
+     * Connessione cliente -> distributore. Nella stessa transazione:
+     * - chiude nello storico (customer_connections) la connessione attiva del cliente e quella del distributore
+     * - sostituisce la riga in active_connections (una per distributore, al più una per cliente)
+     * - apre la nuova riga di storico
+     */
+    public void connect(long customerId, long distributorId) {
         try (Connection conn = DbConnectionManager.getConnection()) {
             conn.setAutoCommit(false);
 
-            try (PreparedStatement ps1 = conn.prepareStatement(closePrev);
-                 PreparedStatement ps2 = conn.prepareStatement(closeDistributorPrev);
-                 PreparedStatement psIns = conn.prepareStatement(insertNew)) {
+            try {
+                openConnection(conn, customerId, distributorId);
+                conn.commit();
+            } catch (SQLException | DaoException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
-                ps1.setLong(1, customerId);
-                ps1.executeUpdate();
+        } catch (SQLException e) {
+            throw new DaoException("Errore ConnectionDAO.connect()", e);
+        }
+    }
 
-                ps2.setLong(1, distributorId);
-                ps2.executeUpdate();
+    /**
+     * Connect completo del cliente in una sola transazione (una connessione dal pool, cinque statement):
+     * - una SELECT valida utente (id dalla sessione) e distributore, legge lo stato e il distributore attuale del cliente
+     *   e blocca le due righe (FOR UPDATE) così che due connect concorrenti non si sovrappongano
+     * - se lo stato lo consente, stessi passi di connect()
+     * Lo stato runtime del monitor lo passa il chiamante (fotografia in memoria, nessuna chiamata qui).
+     * Precedenza degli esiti come nel vecchio flusso: utente, distributore, manutenzione, guasto DB, guasto runtime.
+     */
+    public ConnectResult connectCustomer(long customerId, String distributorCode, boolean runtimeFault) {
+        String lookupSql =
+                "SELECT d.id AS distributor_id, d.status, " +
+                        "       (SELECT pd.code FROM active_connections ac " +
+                        "        JOIN distributors pd ON pd.id = ac.distributor_id " +
+                        "        WHERE ac.customer_id = u.id) AS previous_code " +
+                        "FROM users u " +
+                        "LEFT JOIN distributors d ON d.code = ? " +
+                        "WHERE u.id = ? " +
+                        "FOR UPDATE";
 
-                psIns.setLong(1, customerId);
-                psIns.setLong(2, distributorId);
-                int ins = psIns.executeUpdate();
-                if (ins != 1) throw new DaoException("Inserimento connessione fallito (righe=" + ins + ")");
+        try (Connection conn = DbConnectionManager.getConnection()) {
+            conn.setAutoCommit(false);
 
+            try {
+                long distributorId;
+                String status;
+                String previousCode;
+
+                try (PreparedStatement ps = conn.prepareStatement(lookupSql)) {
+                    ps.setString(1, distributorCode);
+                    ps.setLong(2, customerId);
+
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) return rejected(conn, ERR_USER_NOT_FOUND);
+                        distributorId = rs.getLong("distributor_id");
+                        if (rs.wasNull()) return rejected(conn, ERR_DISTRIBUTOR_NOT_FOUND);
+                        status = rs.getString("status");
+                        previousCode = rs.getString("previous_code");
+                    }
+                }
+
+                String dbStatus = (status == null) ? "" : status.trim().toUpperCase();
+                if ("MAINTENANCE".equals(dbStatus)) return rejected(conn, ERR_MAINTENANCE);
+                if ("FAULT".equals(dbStatus)) return rejected(conn, ERR_FAULT);
+                if (runtimeFault) return rejected(conn, ERR_RUNTIME_FAULT);
+
+                openConnection(conn, customerId, distributorId);
                 conn.commit();
-            } catch (SQLException e) {
+                return new ConnectResult(null, previousCode);
+
+            } catch (SQLException | DaoException e) {
                 conn.rollback();
                 throw e;
             } finally {
@@ -46,19 +122,74 @@ public class ConnectionDAO {
             }
 
         } catch (SQLException e) {
-            throw new DaoException("Errore ConnectionDAO.connect()", e);
+            throw new DaoException("Errore ConnectionDAO.connectCustomer()", e);
+        }
+    }
+
+    private ConnectResult rejected(Connection conn, String error) throws SQLException {
+        conn.rollback(); // rilascia i lock della SELECT
+        return new ConnectResult(error, null);
+    }
+
+    private void openConnection(Connection conn, long customerId, long distributorId) throws SQLException {
+        try (PreparedStatement psClose = conn.prepareStatement(CLOSE_ACTIVE_SQL);
+             PreparedStatement psDel = conn.prepareStatement(DELETE_ACTIVE_SQL);
+             PreparedStatement psIns = conn.prepareStatement(INSERT_HISTORY_SQL, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement psAct = conn.prepareStatement(INSERT_ACTIVE_SQL)) {
+
+            psClose.setLong(1, customerId);
+            psClose.setLong(2, distributorId);
+            psClose.executeUpdate();
+
+            psDel.setLong(1, customerId);
+            psDel.setLong(2, distributorId);
+            psDel.executeUpdate();
+
+            psIns.setLong(1, customerId);
+            psIns.setLong(2, distributorId);
+            int ins = psIns.executeUpdate();
+            if (ins != 1) throw new DaoException("Inserimento connessione fallito (righe=" + ins + ")");
+
+            long connectionId;
+            try (ResultSet keys = psIns.getGeneratedKeys()) {
+                if (!keys.next()) throw new DaoException("Inserimento connessione fallito (id non generato)");
+                connectionId = keys.getLong(1);
+            }
+
+            psAct.setLong(1, distributorId);
+            psAct.setLong(2, customerId);
+            psAct.setLong(3, connectionId);
+            psAct.executeUpdate();
         }
     }
 
     public void disconnect(long customerId) {
-        String sql = "UPDATE customer_connections SET disconnected_at = NOW() " +
-                "WHERE customer_id = ? AND disconnected_at IS NULL";
+        String closeSql = "UPDATE customer_connections cc " +
+                "JOIN active_connections ac ON ac.connection_id = cc.id " +
+                "SET cc.disconnected_at = NOW() " +
+                "WHERE ac.customer_id = ?";
 
-        try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        String deleteActive = "DELETE FROM active_connections WHERE customer_id = ?";
 
-            ps.setLong(1, customerId);
-            ps.executeUpdate();
+        try (Connection conn = DbConnectionManager.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement psClose = conn.prepareStatement(closeSql);
+                 PreparedStatement psDel = conn.prepareStatement(deleteActive)) {
+
+                psClose.setLong(1, customerId);
+                psClose.executeUpdate();
+
+                psDel.setLong(1, customerId);
+                psDel.executeUpdate();
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
         } catch (SQLException e) {
             throw new DaoException("Errore ConnectionDAO.disconnect()", e);
@@ -66,9 +197,7 @@ public class ConnectionDAO {
     }
 
     public Long findActiveDistributorId(long customerId) {
-        String sql = "SELECT distributor_id FROM customer_connections " +
-                "WHERE customer_id = ? AND disconnected_at IS NULL " +
-                "ORDER BY connected_at DESC LIMIT 1";
+        String sql = "SELECT distributor_id FROM active_connections WHERE customer_id = ?";
 
         try (Connection conn = DbConnectionManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -88,11 +217,9 @@ public class ConnectionDAO {
     public String findActiveDistributorCodeByCustomerId(long customerId) {
         String sql =
                 "SELECT d.code " +
-                        "FROM customer_connections c " +
-                        "JOIN distributors d ON d.id = c.distributor_id " +
-                        "WHERE c.customer_id = ? AND c.disconnected_at IS NULL " +
-                        "ORDER BY c.connected_at DESC " +
-                        "LIMIT 1";
+                        "FROM active_connections ac " +
+                        "JOIN distributors d ON d.id = ac.distributor_id " +
+                        "WHERE ac.customer_id = ?";
 
         try (Connection conn = DbConnectionManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
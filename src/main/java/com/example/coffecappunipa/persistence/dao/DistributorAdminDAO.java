@@ -4,10 +4,17 @@ import com.example.coffecappunipa.persistence.util.DaoException;
 import com.example.coffecappunipa.persistence.util.DbConnectionManager;
 
 import java.sql.*;
+import java.util.List;
 
 public class DistributorAdminDAO {
 
-    public long createDistributorWithSupplies(String code, String locationName, String statusEnum) {
+    private final MonitorOutboxDAO outboxDAO = new MonitorOutboxDAO();
+
+    /**
+     * Crea distributore + riga supplies; i messaggi per il monitor finiscono nell'outbox nella stessa transazione.
+     */
+    public long createDistributorWithSupplies(String code, String locationName, String statusEnum,
+                                              List<MonitorOutboxDAO.Message> monitorMessages) {
         String insD = "INSERT INTO distributors(code, location_name, status) VALUES(?, ?, ?)";
         String insS = "INSERT INTO distributor_supplies(distributor_id, coffee_level, milk_level, sugar_level, cups_level) VALUES(?, 0, 0, 0, 0)";
 
@@ -34,10 +41,13 @@ public class DistributorAdminDAO {
                 int sUpd = psS.executeUpdate();
                 if (sUpd != 1) throw new DaoException("Inserimento distributor_supplies fallito (updated=" + sUpd + ")");
 
+                outboxDAO.enqueue(conn, monitorMessages);
+
                 conn.commit();
+                DistributorCodeCache.invalidate(code); // eventuale lookup negativo
                 return distId;
 
-            } catch (SQLException e) {
+            } catch (SQLException | DaoException e) {
                 conn.rollback();
                 throw e;
             } finally {
@@ -49,17 +59,31 @@ public class DistributorAdminDAO {
         }
     }
 
-    public void deleteDistributorByCode(String code) {
+    public void deleteDistributorByCode(String code, List<MonitorOutboxDAO.Message> monitorMessages) {
         String sql = "DELETE FROM distributors WHERE code = ?";
 
-        try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = DbConnectionManager.getConnection()) {
+            conn.setAutoCommit(false);
 
-            ps.setString(1, code);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setString(1, code);
+
+                int updated = ps.executeUpdate();
+                if (updated != 1) {
+                    throw new DaoException("Delete distributor fallita: non trovato (code=" + code + ")");
+                }
 
-            int updated = ps.executeUpdate();
-            if (updated != 1) {
-                throw new DaoException("Delete distributor fallita: non trovato (code=" + code + ")");
+                outboxDAO.enqueue(conn, monitorMessages);
+
+                conn.commit();
+                DistributorCodeCache.invalidate(code);
+
+            } catch (SQLException | DaoException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
 
         } catch (SQLException e) {
@@ -67,17 +91,31 @@ public class DistributorAdminDAO {
         }
     }
 
-    public void updateStatusByCode(String code, String statusEnum) {
+    public void updateStatusByCode(String code, String statusEnum, List<MonitorOutboxDAO.Message> monitorMessages) {
         String sql = "UPDATE distributors SET status = ? WHERE code = ?";
 
-        try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = DbConnectionManager.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, statusEnum);
-            ps.setString(2, code);
+                ps.setString(1, statusEnum);
+                ps.setString(2, code);
 
-            int updated = ps.executeUpdate();
-            if (updated != 1) throw new DaoException("Update status fallito: non trovato (code=" + code + ")");
+                int updated = ps.executeUpdate();
+                if (updated != 1) throw new DaoException("Update status fallito: non trovato (code=" + code + ")");
+
+                outboxDAO.enqueue(conn, monitorMessages);
+
+                conn.commit();
+                DistributorCodeCache.invalidate(code);
+
+            } catch (SQLException | DaoException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
         } catch (SQLException e) {
             throw new DaoException("Errore DistributorAdminDAO.updateStatusByCode()", e);
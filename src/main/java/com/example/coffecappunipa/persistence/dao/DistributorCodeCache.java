@@ -0,0 +1,69 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.persistence.util.TtlCache;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache codice distributore -> (id, stato) davanti a DistributorDAO, per poll e boot.
+ * - i dati cambiano solo con le azioni di gestore/manutentore e con la sync dal monitor: i DAO che li scrivono
+ *   chiamano invalidate(code) dopo il commit
+ * - lookup negativi (codice sconosciuto) in cache per poco tempo
+ * - il TTL positivo copre le modifiche fatte da fuori dall'applicazione; una lettura concorrente a un commit
+ *   non rimette in cache il dato vecchio (generazione di TtlCache)
+ * Per le decisioni sotto lock (connect, acquisto) i DAO continuano a leggere dal DB.
+ */
+public final class DistributorCodeCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+    private static final long POSITIVE_TTL_SECONDS = 60;
+    private static final long NEGATIVE_TTL_SECONDS = 10;
+
+    // Optional.empty() = codice sconosciuto (lookup negativo)
+    private static final TtlCache<String, Optional<DistributorDAO.IdStatus>> CACHE = new TtlCache<>(MAX_ENTRIES);
+
+    private static final DistributorDAO distributorDAO = new DistributorDAO();
+
+    private DistributorCodeCache() {}
+
+    /**
+     * Id del distributore, null se il codice non esiste.
+     */
+    public static Long findIdByCode(String code) {
+        DistributorDAO.IdStatus d = find(code);
+        return d == null ? null : d.id;
+    }
+
+    /**
+     * Stato nel DB principale (ACTIVE/MAINTENANCE/FAULT), null se il codice non esiste.
+     */
+    public static String findStatusByCode(String code) {
+        DistributorDAO.IdStatus d = find(code);
+        return d == null ? null : d.status;
+    }
+
+    private static DistributorDAO.IdStatus find(String code) {
+        if (code == null || code.isBlank()) return null;
+
+        Optional<DistributorDAO.IdStatus> cached = CACHE.get(code);
+        if (cached != null) return cached.orElse(null);
+
+        // generazione letta prima della query: se invalidate(code) arriva durante il caricamento il valore non entra
+        long gen = CACHE.generation(code);
+        Optional<DistributorDAO.IdStatus> loaded = distributorDAO.findIdAndStatusByCode(code);
+        CACHE.put(code, loaded, loaded.isPresent() ? POSITIVE_TTL_SECONDS : NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS, gen);
+        return loaded.orElse(null);
+    }
+
+    /**
+     * Da chiamare dopo il commit di una modifica a id/stato del distributore (creazione, eliminazione, cambio stato).
+     */
+    public static void invalidate(String code) {
+        if (code != null) CACHE.invalidate(code);
+    }
+
+    public static TtlCache.Stats getStats() {
+        return CACHE.getStats();
+    }
+}
@@ -4,16 +4,25 @@ import com.example.coffecappunipa.model.DistributorState;
 import com.example.coffecappunipa.persistence.util.DaoException;
 import com.example.coffecappunipa.persistence.util.DbConnectionManager;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
 
 public class DistributorDAO {
 
+    private final MonitorOutboxDAO outboxDAO = new MonitorOutboxDAO();
+
+    // Riconciliazione ogni SYNC_CHUNK_SIZE distributori modificati: una transazione breve per blocco
+    private static final int SYNC_CHUNK_SIZE = 500;
+
     public static class SyncResult {
         public int updated;
         public int missing;
         public int invalid;
+        public int unchanged;
+        public long elapsedMs;
+        public List<String> changedCodes = new ArrayList<>();
 
         public SyncResult(int updated, int missing, int invalid) {
             this.updated = updated;
@@ -22,6 +31,35 @@ public class DistributorDAO {
         }
     }
 
+    // id + stato per DistributorCodeCache (una sola lettura per chiave)
+    public static class IdStatus {
+        public final long id;
+        public final String status;
+
+        public IdStatus(long id, String status) {
+            this.id = id;
+            this.status = status;
+        }
+    }
+
+    public Optional<IdStatus> findIdAndStatusByCode(String code) {
+        String sql = "SELECT id, status FROM distributors WHERE code = ?";
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, code);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return Optional.empty();
+                return Optional.of(new IdStatus(rs.getLong("id"), rs.getString("status")));
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore DistributorDAO.findIdAndStatusByCode()", e);
+        }
+    }
+
     public String findStatusByCode(String code) {
         String sql = "SELECT status FROM distributors WHERE code = ?";
 
@@ -126,74 +164,77 @@ public class DistributorDAO {
         }
     }
 
-    public List<DistributorState> findAllStatesForXml() {
+    /**
+     * Riceve un distributore alla volta (con i suoi guasti aperti) durante streamStatesForXml().
+     */
+    @FunctionalInterface
+    public interface StateHandler {
+        void handle(DistributorState d) throws IOException;
+    }
+
+    /**
+     * Export per state.xml letto con un cursore forward-only in streaming (Connector/J: fetchSize = MIN_VALUE):
+     * una sola query con i guasti aperti in LEFT JOIN, righe ordinate per codice, e in memoria c'è
+     * solo il distributore corrente. La connessione resta occupata finché l'handler non ha scritto l'ultima riga.
+     */
+    public void streamStatesForXml(StateHandler handler) throws IOException {
         String sql = "SELECT d.id, d.code, d.location_name, d.status, " +
                 "COALESCE(s.coffee_level, 0) AS coffee_level, " +
                 "COALESCE(s.milk_level, 0) AS milk_level, " +
                 "COALESCE(s.sugar_level, 0) AS sugar_level, " +
-                "COALESCE(s.cups_level, 0) AS cups_level " +
+                "COALESCE(s.cups_level, 0) AS cups_level, " +
+                "f.id AS fault_id, f.description AS fault_description, f.created_at AS fault_created_at " +
                 "FROM distributors d " +
                 "LEFT JOIN distributor_supplies s ON s.distributor_id = d.id " +
-                "ORDER BY d.code";
-
-        List<DistributorState> out = new ArrayList<>();
-        Map<Long, DistributorState> byId = new HashMap<>();
+                "LEFT JOIN distributor_faults f ON f.distributor_id = d.id AND f.is_open = 1 " +
+                "ORDER BY d.code, f.created_at DESC";
 
         try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-
-            while (rs.next()) {
-                long id = rs.getLong("id");
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
 
-                DistributorState d = new DistributorState();
-                d.setCode(rs.getString("code"));
-                d.setLocationName(rs.getString("location_name"));
-                d.setStatus(rs.getString("status"));
+            ps.setFetchSize(Integer.MIN_VALUE);
 
-                d.setCoffeeLevel(rs.getInt("coffee_level"));
-                d.setMilkLevel(rs.getInt("milk_level"));
-                d.setSugarLevel(rs.getInt("sugar_level"));
-                d.setCupsLevel(rs.getInt("cups_level"));
+            try (ResultSet rs = ps.executeQuery()) {
+                DistributorState current = null;
+                long currentId = -1;
 
-                out.add(d);
-                byId.put(id, d);
-            }
+                while (rs.next()) {
+                    long id = rs.getLong("id");
 
-            loadOpenFaults(conn, byId);
-            return out;
+                    if (current == null || id != currentId) {
+                        if (current != null) handler.handle(current);
 
-        } catch (SQLException e) {
-            throw new DaoException("Errore DistributorDAO.findAllStatesForXml()", e);
-        }
-    }
+                        current = new DistributorState();
+                        currentId = id;
+                        current.setCode(rs.getString("code"));
+                        current.setLocationName(rs.getString("location_name"));
+                        current.setStatus(rs.getString("status"));
 
-    private void loadOpenFaults(Connection conn, Map<Long, DistributorState> byId) throws SQLException {
-        String sql = "SELECT id, distributor_id, description, created_at " +
-                "FROM distributor_faults " +
-                "WHERE is_open = 1 " +
-                "ORDER BY distributor_id, created_at DESC";
-
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+                        current.setCoffeeLevel(rs.getInt("coffee_level"));
+                        current.setMilkLevel(rs.getInt("milk_level"));
+                        current.setSugarLevel(rs.getInt("sugar_level"));
+                        current.setCupsLevel(rs.getInt("cups_level"));
+                    }
 
-            while (rs.next()) {
-                long faultId = rs.getLong("id");
-                long distId = rs.getLong("distributor_id");
+                    long faultId = rs.getLong("fault_id");
+                    if (rs.wasNull()) continue;
 
-                DistributorState dist = byId.get(distId);
-                if (dist == null) continue;
+                    DistributorState.FaultItem f = new DistributorState.FaultItem();
+                    f.setCode("F-" + faultId);
+                    f.setDescription(rs.getString("fault_description"));
 
-                DistributorState.FaultItem f = new DistributorState.FaultItem();
-                f.setCode("F-" + faultId);
-                f.setDescription(rs.getString("description"));
+                    Timestamp ts = rs.getTimestamp("fault_created_at");
+                    LocalDateTime dt = (ts != null) ? ts.toLocalDateTime() : null;
+                    f.setCreatedAt(dt);
 
-                Timestamp ts = rs.getTimestamp("created_at");
-                LocalDateTime dt = (ts != null) ? ts.toLocalDateTime() : null;
-                f.setCreatedAt(dt);
+                    current.getFaults().add(f);
+                }
 
-                dist.getFaults().add(f);
+                if (current != null) handler.handle(current);
             }
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore DistributorDAO.streamStatesForXml()", e);
         }
     }
 
@@ -222,18 +263,35 @@ public class DistributorDAO {
         }
     }
 
-    public void updateStatusByCode(String code, String dbStatus) {
+    /**
+     * Aggiorna lo stato; i messaggi per il monitor finiscono nell'outbox nella stessa transazione.
+     */
+    public void updateStatusByCode(String code, String dbStatus, List<MonitorOutboxDAO.Message> monitorMessages) {
         String sql = "UPDATE distributors SET status = ? WHERE code = ?";
 
-        try (Connection conn = DbConnectionManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = DbConnectionManager.getConnection()) {
+            conn.setAutoCommit(false);
 
-            ps.setString(1, dbStatus);
-            ps.setString(2, code);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            int updated = ps.executeUpdate();
-            if (updated != 1) {
-                throw new DaoException("Update status fallito: distributore non trovato (code=" + code + ")");
+                ps.setString(1, dbStatus);
+                ps.setString(2, code);
+
+                int updated = ps.executeUpdate();
+                if (updated != 1) {
+                    throw new DaoException("Update status fallito: distributore non trovato (code=" + code + ")");
+                }
+
+                outboxDAO.enqueue(conn, monitorMessages);
+
+                conn.commit();
+                DistributorCodeCache.invalidate(code);
+
+            } catch (SQLException | DaoException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
 
         } catch (SQLException e) {
@@ -241,49 +299,124 @@ public class DistributorDAO {
         }
     }
 
+    /**
+     * Allinea gli stati del DB principale a quelli del monitor scrivendo solo ciò che è cambiato:
+     * - una SELECT legge gli stati attuali e li confronta con la mappa (codici sconosciuti = missing)
+     * - i cambi vengono scritti a blocchi di SYNC_CHUNK_SIZE, con un UPDATE ... WHERE code IN (...) per stato
+     *   di destinazione e una transazione per blocco (niente transazione lunga su tutta la flotta)
+     * - "AND status <> ?" evita di riscrivere righe già allineate nel frattempo (contate come unchanged)
+     */
     public SyncResult applyStatusesFromMonitor(Map<String, String> monitorStatuses) {
+        long t0 = System.nanoTime();
         if (monitorStatuses == null || monitorStatuses.isEmpty()) {
             return new SyncResult(0, 0, 0);
         }
 
-        String sql = "UPDATE distributors SET status = ? WHERE code = ?";
-
-        Connection conn = null;
-        int updated = 0;
-        int missing = 0;
         int invalid = 0;
+        Map<String, String> wanted = new HashMap<>();
+        for (Map.Entry<String, String> e : monitorStatuses.entrySet()) {
+            String code = (e.getKey() == null) ? "" : e.getKey().trim();
+            String dbStatus = normalizeMonitorStatus(e.getValue());
+            if (code.isEmpty() || dbStatus == null) {
+                invalid++;
+                continue;
+            }
+            wanted.put(code, dbStatus);
+        }
 
-        try {
-            conn = DbConnectionManager.getConnection();
-            conn.setAutoCommit(false);
+        SyncResult result = new SyncResult(0, 0, invalid);
+
+        // 1) diff con gli stati attuali
+        Map<String, String> current = findAllStatuses();
+        List<String[]> changes = new ArrayList<>(); // {code, nuovo stato}
+        for (Map.Entry<String, String> e : wanted.entrySet()) {
+            String now = current.get(e.getKey());
+            if (now == null) {
+                result.missing++;
+            } else if (now.equalsIgnoreCase(e.getValue())) {
+                result.unchanged++;
+            } else {
+                changes.add(new String[]{e.getKey(), e.getValue()});
+            }
+        }
 
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                for (Map.Entry<String, String> e : monitorStatuses.entrySet()) {
-                    String code = (e.getKey() == null) ? "" : e.getKey().trim();
-                    String stRaw = (e.getValue() == null) ? "" : e.getValue().trim();
+        // 2) scrittura dei soli cambi, a blocchi
+        for (int i = 0; i < changes.size(); i += SYNC_CHUNK_SIZE) {
+            applyStatusChunk(changes.subList(i, Math.min(changes.size(), i + SYNC_CHUNK_SIZE)), result);
+        }
 
-                    if (code.isEmpty()) {
-                        invalid++;
-                        continue;
-                    }
+        result.elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+        return result;
+    }
 
-                    String dbStatus = normalizeMonitorStatus(stRaw);
-                    if (dbStatus == null) {
-                        invalid++;
-                        continue;
-                    }
+    private Map<String, String> findAllStatuses() {
+        String sql = "SELECT code, status FROM distributors";
+        Map<String, String> out = new HashMap<>();
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
 
-                    ps.setString(1, dbStatus);
-                    ps.setString(2, code);
+            while (rs.next()) {
+                out.put(rs.getString("code"), rs.getString("status"));
+            }
+            return out;
 
-                    int r = ps.executeUpdate();
-                    if (r == 1) updated++;
-                    else missing++;
+        } catch (SQLException e) {
+            throw new DaoException("Errore DistributorDAO.findAllStatuses()", e);
+        }
+    }
+
+    private void applyStatusChunk(List<String[]> chunk, SyncResult result) {
+        // per stato di destinazione (al più tre per blocco): SELECT ... FOR UPDATE dei soli codici da cambiare,
+        // poi un UPDATE su quelli. Così changedCodes contiene solo le righe scritte davvero, non quelle
+        // allineate da qualcun altro tra la lettura e la scrittura
+        Map<String, List<String>> byStatus = new LinkedHashMap<>();
+        for (String[] c : chunk) byStatus.computeIfAbsent(c[1], k -> new ArrayList<>()).add(c[0]);
+
+        Connection conn = null;
+        try {
+            conn = DbConnectionManager.getConnection();
+            conn.setAutoCommit(false);
+
+            List<String> changed = new ArrayList<>();
+            int expected = 0;
+            int updated = 0;
+
+            for (Map.Entry<String, List<String>> e : byStatus.entrySet()) {
+                List<String> codes = e.getValue();
+                expected += codes.size();
+
+                List<String> toChange = new ArrayList<>(codes.size());
+                String select = "SELECT code FROM distributors WHERE status <> ? AND code IN ("
+                        + String.join(",", Collections.nCopies(codes.size(), "?")) + ") FOR UPDATE";
+                try (PreparedStatement ps = conn.prepareStatement(select)) {
+                    ps.setString(1, e.getKey());
+                    int idx = 2;
+                    for (String code : codes) ps.setString(idx++, code);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) toChange.add(rs.getString(1));
+                    }
                 }
+                if (toChange.isEmpty()) continue;
+
+                String sql = "UPDATE distributors SET status = ? WHERE code IN ("
+                        + String.join(",", Collections.nCopies(toChange.size(), "?")) + ")";
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, e.getKey());
+                    int idx = 2;
+                    for (String code : toChange) ps.setString(idx++, code);
+                    updated += ps.executeUpdate();
+                }
+                changed.addAll(toChange);
             }
 
             conn.commit();
-            return new SyncResult(updated, missing, invalid);
+
+            result.updated += updated;
+            result.unchanged += expected - updated; // allineati da qualcun altro tra la lettura e la scrittura
+            result.changedCodes.addAll(changed);
+            for (String code : changed) DistributorCodeCache.invalidate(code);
 
         } catch (Exception ex) {
             if (conn != null) {
@@ -6,6 +6,7 @@ import com.example.coffecappunipa.persistence.util.DbConnectionManager;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DistributorScreenDAO {
 
@@ -22,6 +23,20 @@ public class DistributorScreenDAO {
     private static final int MILK_ML_PER_PURCHASE   = 0;
     private static final int CUPS_PER_PURCHASE      = 1;
 
+    // Modalità di esecuzione dell'acquisto (A/B sotto carico):
+    // - jdbc:      sequenza di statement dal client in una transazione (default)
+    // - procedure: una sola CALL a sp_purchase (db/01_schema_main.sql), un round trip
+    // - group:     stessi passi di jdbc, ma più acquisti nella stessa transazione (PurchaseLedger, group commit)
+    public static final String MODE_JDBC = "jdbc";
+    public static final String MODE_PROCEDURE = "procedure";
+    public static final String MODE_GROUP = "group";
+    private static final String PURCHASE_MODE = purchaseModeFromEnv();
+
+    // Contatori per modalità: A/B confrontabile da /api/manager/diagnostics
+    private static final PurchaseCounters jdbcCounters = new PurchaseCounters();
+    private static final PurchaseCounters procedureCounters = new PurchaseCounters();
+    private static final PurchaseCounters groupCounters = new PurchaseCounters();
+
     public static class ConnectedCustomer {
         public long customerId;
         public String username;
@@ -36,17 +51,15 @@ public class DistributorScreenDAO {
 
     /**
      * Ritorna l'utente attualmente connesso al distributore (se esiste).
-     * Connessione attiva = record customer_connections con disconnected_at IS NULL.
+     * Connessione attiva = riga di active_connections del distributore (lettura per chiave).
      */
     public Optional<ConnectedCustomer> findConnectedCustomerByDistributorCode(String distributorCode) {
         String sql =
                 "SELECT u.id AS customer_id, u.username, u.credit " +
-                        "FROM customer_connections cc " +
-                        "JOIN distributors d ON d.id = cc.distributor_id " +
-                        "JOIN users u ON u.id = cc.customer_id " +
-                        "WHERE d.code = ? AND cc.disconnected_at IS NULL " +
-                        "ORDER BY cc.connected_at DESC " +
-                        "LIMIT 1";
+                        "FROM distributors d " +
+                        "JOIN active_connections ac ON ac.distributor_id = d.id " +
+                        "JOIN users u ON u.id = ac.customer_id " +
+                        "WHERE d.code = ?";
 
         try (Connection conn = DbConnectionManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -81,16 +94,63 @@ public class DistributorScreenDAO {
         if (sugarQty < 0) sugarQty = 0;
         if (sugarQty > 10) sugarQty = 10;
 
+        PurchaseCounters counters = countersFor(PURCHASE_MODE);
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try {
+            BigDecimal newCredit = switch (PURCHASE_MODE) {
+                case MODE_PROCEDURE -> performPurchaseProcedure(distributorCode, beverageId, sugarQty);
+                case MODE_GROUP -> PurchaseLedger.submit(this, distributorCode, beverageId, sugarQty);
+                default -> performPurchaseJdbc(distributorCode, beverageId, sugarQty);
+            };
+            ok = true;
+            return newCredit;
+        } finally {
+            counters.record(System.nanoTime() - t0, ok);
+        }
+    }
+
+    BigDecimal performPurchaseJdbc(String distributorCode, long beverageId, int sugarQty) {
+        Connection conn = null;
+
+        try {
+            conn = DbConnectionManager.getConnection();
+            conn.setAutoCommit(false);
+
+            BigDecimal newCredit = purchaseSteps(conn, distributorCode, beverageId, sugarQty);
+
+            conn.commit();
+            return newCredit;
+
+        } catch (Exception e) {
+            if (conn != null) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+            }
+            if (e instanceof DaoException) throw (DaoException) e;
+            throw new DaoException("Errore DistributorScreenDAO.performPurchase()", e);
+
+        } finally {
+            if (conn != null) {
+                try { conn.setAutoCommit(true); } catch (SQLException ignored) {}
+                try { conn.close(); } catch (SQLException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * I passi dell'erogazione sulla connessione data, già in transazione (niente commit/rollback qui):
+     * li usano sia la modalità jdbc (una transazione per acquisto) sia PurchaseLedger (più acquisti per commit).
+     * Gli esiti di business escono come DaoException con i codici ERR_*.
+     */
+    BigDecimal purchaseSteps(Connection conn, String distributorCode, long beverageId, int sugarQty) throws SQLException {
+
         // 1) Lock connessione attiva + ricavo customerId/distributorId
         //impedisce che l'utente si disconnetta mentre performa l'acquisto
         String lockConnSql =
-                "SELECT u.id AS customer_id, d.id AS distributor_id " +
-                        "FROM customer_connections cc " +
-                        "JOIN distributors d ON d.id = cc.distributor_id " +
-                        "JOIN users u ON u.id = cc.customer_id " +
-                        "WHERE d.code = ? AND cc.disconnected_at IS NULL " +
-                        "ORDER BY cc.connected_at DESC " +
-                        "LIMIT 1 " +
+                "SELECT ac.customer_id, ac.distributor_id " +
+                        "FROM distributors d " +
+                        "JOIN active_connections ac ON ac.distributor_id = d.id " +
+                        "WHERE d.code = ? " +
                         "FOR UPDATE";
 
         // 2) Leggo prezzo dal DB (evito parametri esterni)
@@ -127,111 +187,180 @@ public class DistributorScreenDAO {
         String selectNewCreditSql =
                 "SELECT credit FROM users WHERE id = ?";
 
-        Connection conn = null;
-
-        try {
-            conn = DbConnectionManager.getConnection();
-            conn.setAutoCommit(false);
+        long customerId;
+        long distributorId;
 
-            long customerId;
-            long distributorId;
+        // 1) lock connessione
+        try (PreparedStatement psLock = conn.prepareStatement(lockConnSql)) {
+            psLock.setString(1, distributorCode);
 
-            // 1) lock connessione
-            try (PreparedStatement psLock = conn.prepareStatement(lockConnSql)) {
-                psLock.setString(1, distributorCode);
-
-                try (ResultSet rs = psLock.executeQuery()) {
-                    if (!rs.next()) throw new DaoException(ERR_NO_CUSTOMER_CONNECTED);
-                    customerId = rs.getLong("customer_id");
-                    distributorId = rs.getLong("distributor_id");
-                }
+            try (ResultSet rs = psLock.executeQuery()) {
+                if (!rs.next()) throw new DaoException(ERR_NO_CUSTOMER_CONNECTED);
+                customerId = rs.getLong("customer_id");
+                distributorId = rs.getLong("distributor_id");
             }
+        }
 
-            // 2) prezzo bevanda dal DB
-            BigDecimal price;
-            try (PreparedStatement psBev = conn.prepareStatement(selectBeverageSql)) {
-                psBev.setLong(1, beverageId);
-                try (ResultSet rs = psBev.executeQuery()) {
-                    if (!rs.next()) throw new DaoException(ERR_INVALID_BEVERAGE);
-                    price = rs.getBigDecimal("price");
-                }
+        // 2) prezzo bevanda dal DB
+        BigDecimal price;
+        try (PreparedStatement psBev = conn.prepareStatement(selectBeverageSql)) {
+            psBev.setLong(1, beverageId);
+            try (ResultSet rs = psBev.executeQuery()) {
+                if (!rs.next()) throw new DaoException(ERR_INVALID_BEVERAGE);
+                price = rs.getBigDecimal("price");
             }
+        }
 
-            if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
-                throw new DaoException(ERR_INVALID_PRICE);
-            }
+        if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new DaoException(ERR_INVALID_PRICE);
+        }
 
-            // 3) scalo scorte (prima o dopo il credito è indifferente: rollback copre tutto)
-            int coffeeNeed = COFFEE_GR_PER_PURCHASE;
-            int milkNeed   = MILK_ML_PER_PURCHASE;
-            int sugarNeed  = sugarQty;
-            int cupsNeed   = CUPS_PER_PURCHASE;
-
-            try (PreparedStatement psSup = conn.prepareStatement(updateSuppliesAtomicSql)) {
-                psSup.setInt(1, coffeeNeed);
-                psSup.setInt(2, milkNeed);
-                psSup.setInt(3, sugarNeed);
-                psSup.setInt(4, cupsNeed);
-                psSup.setLong(5, distributorId);
-
-                psSup.setInt(6, coffeeNeed);
-                psSup.setInt(7, milkNeed);
-                psSup.setInt(8, sugarNeed);
-                psSup.setInt(9, cupsNeed);
-
-                int updSup = psSup.executeUpdate();
-                if (updSup != 1) {
-                    throw new DaoException(ERR_OUT_OF_STOCK);
-                }
+        // 3) scalo scorte (prima o dopo il credito è indifferente: rollback copre tutto)
+        int coffeeNeed = COFFEE_GR_PER_PURCHASE;
+        int milkNeed   = MILK_ML_PER_PURCHASE;
+        int sugarNeed  = sugarQty;
+        int cupsNeed   = CUPS_PER_PURCHASE;
+
+        try (PreparedStatement psSup = conn.prepareStatement(updateSuppliesAtomicSql)) {
+            psSup.setInt(1, coffeeNeed);
+            psSup.setInt(2, milkNeed);
+            psSup.setInt(3, sugarNeed);
+            psSup.setInt(4, cupsNeed);
+            psSup.setLong(5, distributorId);
+
+            psSup.setInt(6, coffeeNeed);
+            psSup.setInt(7, milkNeed);
+            psSup.setInt(8, sugarNeed);
+            psSup.setInt(9, cupsNeed);
+
+            int updSup = psSup.executeUpdate();
+            if (updSup != 1) {
+                throw new DaoException(ERR_OUT_OF_STOCK);
             }
+        }
 
-            // 4) update credito atomico
-            try (PreparedStatement psUp = conn.prepareStatement(updateCreditAtomicSql)) {
-                psUp.setBigDecimal(1, price);
-                psUp.setLong(2, customerId);
-                psUp.setBigDecimal(3, price);
+        // 4) update credito atomico
+        try (PreparedStatement psUp = conn.prepareStatement(updateCreditAtomicSql)) {
+            psUp.setBigDecimal(1, price);
+            psUp.setLong(2, customerId);
+            psUp.setBigDecimal(3, price);
 
-                int upd = psUp.executeUpdate();
-                if (upd != 1) throw new DaoException(ERR_INSUFFICIENT_CREDIT);
-            }
+            int upd = psUp.executeUpdate();
+            if (upd != 1) throw new DaoException(ERR_INSUFFICIENT_CREDIT);
+        }
 
-            // 5) insert purchase
-            try (PreparedStatement psIns = conn.prepareStatement(insertPurchaseSql)) {
-                psIns.setLong(1, customerId);
-                psIns.setLong(2, distributorId);
-                psIns.setLong(3, beverageId);
-                psIns.setInt(4, sugarQty);
-                psIns.setBigDecimal(5, price);
+        // 5) insert purchase
+        try (PreparedStatement psIns = conn.prepareStatement(insertPurchaseSql)) {
+            psIns.setLong(1, customerId);
+            psIns.setLong(2, distributorId);
+            psIns.setLong(3, beverageId);
+            psIns.setInt(4, sugarQty);
+            psIns.setBigDecimal(5, price);
 
-                int ins = psIns.executeUpdate();
-                if (ins != 1) throw new DaoException("ERR_PURCHASE_INSERT_FAILED");
-            }
+            int ins = psIns.executeUpdate();
+            if (ins != 1) throw new DaoException("ERR_PURCHASE_INSERT_FAILED");
+        }
 
-            // 6) read new credit
-            BigDecimal newCredit;
-            try (PreparedStatement psSel = conn.prepareStatement(selectNewCreditSql)) {
-                psSel.setLong(1, customerId);
-                try (ResultSet rs2 = psSel.executeQuery()) {
-                    if (!rs2.next()) throw new DaoException("ERR_CREDIT_READ_FAILED");
-                    newCredit = rs2.getBigDecimal("credit");
-                }
+        // 6) read new credit
+        BigDecimal newCredit;
+        try (PreparedStatement psSel = conn.prepareStatement(selectNewCreditSql)) {
+            psSel.setLong(1, customerId);
+            try (ResultSet rs2 = psSel.executeQuery()) {
+                if (!rs2.next()) throw new DaoException("ERR_CREDIT_READ_FAILED");
+                newCredit = rs2.getBigDecimal("credit");
             }
+        }
 
-            conn.commit();
-            return newCredit;
+        return newCredit;
+    }
 
-        } catch (Exception e) {
-            if (conn != null) {
-                try { conn.rollback(); } catch (SQLException ignored) {}
-            }
-            if (e instanceof DaoException) throw (DaoException) e;
-            throw new DaoException("Errore DistributorScreenDAO.performPurchase()", e);
+    /**
+     * Stessa erogazione di performPurchaseJdbc in un'unica CALL a sp_purchase: transazione, lock e controlli
+     * restano lato server. La procedura restituisce (error_code, new_credit) come result set e non con parametri OUT:
+     * una CALL semplice non fa leggere al driver i metadati della procedura né le variabili di sessione dopo,
+     * quindi resta davvero un solo round trip.
+     */
+    private BigDecimal performPurchaseProcedure(String distributorCode, long beverageId, int sugarQty) {
+        String sql = "CALL sp_purchase(?, ?, ?, ?, ?, ?)";
 
-        } finally {
-            if (conn != null) {
-                try { conn.setAutoCommit(true); } catch (SQLException ignored) {}
-                try { conn.close(); } catch (SQLException ignored) {}
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, distributorCode);
+            ps.setLong(2, beverageId);
+            ps.setInt(3, sugarQty);
+            ps.setInt(4, COFFEE_GR_PER_PURCHASE);
+            ps.setInt(5, MILK_ML_PER_PURCHASE);
+            ps.setInt(6, CUPS_PER_PURCHASE);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) throw new DaoException("ERR_CREDIT_READ_FAILED");
+
+                // codici della procedura = costanti ERR_* di questa classe (1:1)
+                String err = rs.getString("error_code");
+                if (err != null) throw new DaoException(err);
+
+                BigDecimal newCredit = rs.getBigDecimal("new_credit");
+                if (newCredit == null) throw new DaoException("ERR_CREDIT_READ_FAILED");
+                return newCredit;
             }
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore DistributorScreenDAO.performPurchaseProcedure()", e);
         }
     }
+
+    private static String purchaseModeFromEnv() {
+        String v = System.getenv("PURCHASE_MODE");
+        if (v == null || v.isBlank()) return MODE_JDBC;
+        v = v.trim().toLowerCase();
+        if (MODE_PROCEDURE.equals(v)) return MODE_PROCEDURE;
+        if (MODE_GROUP.equals(v)) return MODE_GROUP;
+        return MODE_JDBC;
+    }
+
+    public static String getPurchaseMode() {
+        return PURCHASE_MODE;
+    }
+
+    public static PurchaseStats getPurchaseStats(String mode) {
+        return countersFor(mode).snapshot();
+    }
+
+    private static PurchaseCounters countersFor(String mode) {
+        if (MODE_PROCEDURE.equals(mode)) return procedureCounters;
+        if (MODE_GROUP.equals(mode)) return groupCounters;
+        return jdbcCounters;
+    }
+
+    private static class PurchaseCounters {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean ok) {
+            count.incrementAndGet();
+            if (!ok) errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        PurchaseStats snapshot() {
+            PurchaseStats s = new PurchaseStats();
+            s.count = count.get();
+            s.errors = errors.get();
+            s.avgMicros = (s.count == 0) ? 0 : totalNanos.get() / s.count / 1_000;
+            s.maxMicros = maxNanos.get() / 1_000;
+            return s;
+        }
+    }
+
+    // "errors" comprende anche gli esiti di business (credito insufficiente, scorte finite, ...)
+    public static class PurchaseStats {
+        public long count;
+        public long errors;
+        public long avgMicros;
+        public long maxMicros;
+    }
 }
@@ -0,0 +1,211 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.persistence.util.DbConnectionManager;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outbox delle mutazioni da inoltrare a CoffeeMonitor.
+ * enqueue() lavora sulla Connection (e quindi sulla transazione) del chiamante:
+ * la modifica sul DB principale e il messaggio per il monitor vengono salvati insieme o per niente.
+ */
+public class MonitorOutboxDAO {
+
+    public static final String OP_UPSERT = "UPSERT";
+    public static final String OP_STATUS = "STATUS";
+    public static final String OP_DELETE = "DELETE";
+    public static final String OP_HEARTBEAT = "HEARTBEAT";
+
+    public static class Message {
+        public final String code;
+        public final String op;
+        public final String locationName;
+        public final String status;
+
+        private Message(String code, String op, String locationName, String status) {
+            this.code = code;
+            this.op = op;
+            this.locationName = locationName;
+            this.status = status;
+        }
+
+        public static Message upsert(String code, String locationName, String status) {
+            return new Message(code, OP_UPSERT, locationName, status);
+        }
+
+        public static Message status(String code, String status) {
+            return new Message(code, OP_STATUS, null, status);
+        }
+
+        public static Message delete(String code) {
+            return new Message(code, OP_DELETE, null, null);
+        }
+
+        public static Message heartbeat(String code) {
+            return new Message(code, OP_HEARTBEAT, null, null);
+        }
+    }
+
+    public static class OutboxRow {
+        public long id;
+        public String code;
+        public String op;
+        public String locationName;
+        public String status;
+        public int attempts;
+        public boolean due; // next_attempt_at già passato (confronto fatto dal DB, stesso orologio)
+    }
+
+    public static class OutboxStats {
+        public long pending;
+        public long dead;
+        public long oldestPendingAgeMs; // -1 se la coda è vuota
+    }
+
+    public void enqueue(Connection conn, List<Message> messages) throws SQLException {
+        if (messages == null || messages.isEmpty()) return;
+
+        String sql = "INSERT INTO monitor_outbox(distributor_code, op, location_name, status) VALUES(?, ?, ?, ?)";
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Message m : messages) {
+                ps.setString(1, m.code);
+                ps.setString(2, m.op);
+                ps.setString(3, m.locationName);
+                ps.setString(4, m.status);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Prossimi messaggi non "dead" in ordine di inserimento (anche quelli in attesa di retry:
+     * servono al dispatcher per non scavalcare l'ordine per distributore).
+     */
+    public List<OutboxRow> findPending(int limit) {
+        String sql = "SELECT id, distributor_code, op, location_name, status, attempts, " +
+                "(next_attempt_at <= CURRENT_TIMESTAMP) AS due " +
+                "FROM monitor_outbox WHERE dead = 0 ORDER BY id LIMIT ?";
+
+        List<OutboxRow> out = new ArrayList<>();
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, limit);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    OutboxRow r = new OutboxRow();
+                    r.id = rs.getLong("id");
+                    r.code = rs.getString("distributor_code");
+                    r.op = rs.getString("op");
+                    r.locationName = rs.getString("location_name");
+                    r.status = rs.getString("status");
+                    r.attempts = rs.getInt("attempts");
+                    r.due = rs.getBoolean("due");
+                    out.add(r);
+                }
+            }
+            return out;
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore MonitorOutboxDAO.findPending()", e);
+        }
+    }
+
+    /**
+     * Distributori con messaggi ancora da consegnare: per loro il monitor non è ancora allineato al DB.
+     */
+    public Set<String> findPendingCodes() {
+        String sql = "SELECT DISTINCT distributor_code FROM monitor_outbox WHERE dead = 0";
+        Set<String> out = new HashSet<>();
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+
+            while (rs.next()) out.add(rs.getString(1));
+            return out;
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore MonitorOutboxDAO.findPendingCodes()", e);
+        }
+    }
+
+    public void deleteSent(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) return;
+
+        String sql = "DELETE FROM monitor_outbox WHERE id = ?";
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            for (Long id : ids) {
+                ps.setLong(1, id);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore MonitorOutboxDAO.deleteSent()", e);
+        }
+    }
+
+    public void markRetry(long id, long delayMs, String error, boolean dead) {
+        String sql = "UPDATE monitor_outbox " +
+                "SET attempts = attempts + 1, " +
+                "    next_attempt_at = TIMESTAMPADD(MICROSECOND, ?, CURRENT_TIMESTAMP), " +
+                "    last_error = ?, dead = ? " +
+                "WHERE id = ?";
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setLong(1, delayMs * 1000L);
+            ps.setString(2, truncate(error, 255));
+            ps.setBoolean(3, dead);
+            ps.setLong(4, id);
+            ps.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore MonitorOutboxDAO.markRetry()", e);
+        }
+    }
+
+    public OutboxStats stats() {
+        String sql = "SELECT " +
+                "SUM(CASE WHEN dead = 0 THEN 1 ELSE 0 END) AS pending, " +
+                "SUM(CASE WHEN dead = 1 THEN 1 ELSE 0 END) AS dead_count, " +
+                "TIMESTAMPDIFF(MICROSECOND, MIN(CASE WHEN dead = 0 THEN created_at END), CURRENT_TIMESTAMP) AS oldest_us " +
+                "FROM monitor_outbox";
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+
+            OutboxStats s = new OutboxStats();
+            if (rs.next()) {
+                s.pending = rs.getLong("pending");
+                s.dead = rs.getLong("dead_count");
+                long us = rs.getLong("oldest_us");
+                s.oldestPendingAgeMs = rs.wasNull() ? -1 : us / 1000L;
+            }
+            return s;
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore MonitorOutboxDAO.stats()", e);
+        }
+    }
+
+    private static String truncate(String s, int max) {
+        if (s == null) return null;
+        return s.length() <= max ? s : s.substring(0, max);
+    }
+}
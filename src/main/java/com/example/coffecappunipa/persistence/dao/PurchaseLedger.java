@@ -0,0 +1,390 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.persistence.util.DbConnectionManager;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Group commit degli acquisti (PURCHASE_MODE=group).
+ * I controlli restano sincroni e identici alla modalità jdbc (DistributorScreenDAO.purchaseSteps), ma un solo
+ * thread scrittore esegue più acquisti nella stessa transazione e fa un unico commit (un solo fsync) per batch:
+ * - il batch si chiude dopo WINDOW_MS dall'arrivo del primo acquisto o a MAX_BATCH acquisti
+ * - ogni acquisto ha il suo SAVEPOINT: un esito di business (credito, scorte, ...) annulla solo quello
+ * - il chiamante riceve l'esito solo dopo il commit, quindi "ok" vuol dire riga già durevole
+ * - errore tecnico sul batch PRIMA del commit (deadlock, connessione persa): rollback e ogni acquisto rifatto
+ *   da solo in modalità jdbc
+ * - errore durante il commit: l'esito è sconosciuto (il server può aver già reso durevole il batch), quindi niente
+ *   replay (sarebbe un doppio addebito): i chiamanti ricevono un errore
+ * Con la coda piena o lo scrittore fermo si ripiega sulla modalità jdbc per quel singolo acquisto.
+ */
+public final class PurchaseLedger {
+
+    private static final long WINDOW_MS = envLong("PURCHASE_GROUP_WINDOW_MS", 5);
+    private static final int MAX_BATCH = (int) envLong("PURCHASE_GROUP_MAX_BATCH", 32);
+    private static final int QUEUE_CAPACITY = (int) envLong("PURCHASE_GROUP_QUEUE", 1_024);
+    private static final long QUEUE_TIMEOUT_MS = envLong("PURCHASE_GROUP_TIMEOUT_MS", 10_000);
+
+    // limiti superiori (inclusi) delle fasce di dimensione batch per le metriche; l'ultima fascia è "oltre"
+    private static final int[] BUCKET_LIMITS = {1, 4, 16, 64};
+
+    private static final int PENDING = 0;
+    private static final int CLAIMED = 1;
+    private static final int CANCELLED = 2;
+
+    /**
+     * Da dove prendere la connessione del batch (DbConnectionManager; nei test una connessione finta).
+     */
+    @FunctionalInterface
+    interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    static final class Request {
+        final DistributorScreenDAO dao;
+        final String distributorCode;
+        final long beverageId;
+        final int sugarQty;
+        final long enqueuedNanos = System.nanoTime();
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        final CompletableFuture<BigDecimal> result = new CompletableFuture<>();
+
+        Request(DistributorScreenDAO dao, String distributorCode, long beverageId, int sugarQty) {
+            this.dao = dao;
+            this.distributorCode = distributorCode;
+            this.beverageId = beverageId;
+            this.sugarQty = sugarQty;
+        }
+    }
+
+    private static final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static volatile boolean stopping;
+    // true dopo stop(): nessun avvio automatico, gli acquisti vanno in modalità jdbc (solo start() lo azzera)
+    private static volatile boolean stopped;
+    private static volatile Thread writer;
+
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong committed = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong fallbacks = new AtomicLong();
+    private static final AtomicLong batchRetries = new AtomicLong();
+    private static final AtomicLong unknownOutcomes = new AtomicLong();
+    private static final AtomicLong commitNanos = new AtomicLong();
+    private static final AtomicLong maxBatch = new AtomicLong();
+    private static final AtomicLongArray bucketBatches = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+    private static final AtomicLongArray bucketItems = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+    private static final AtomicLongArray bucketLatencyNanos = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+
+    private PurchaseLedger() {}
+
+    /**
+     * Esegue l'acquisto nel prossimo batch e aspetta il commit. Stessi esiti (DaoException con ERR_*) della modalità jdbc.
+     */
+    static BigDecimal submit(DistributorScreenDAO dao, String distributorCode, long beverageId, int sugarQty) {
+        ensureStarted();
+
+        Request r = new Request(dao, distributorCode, beverageId, sugarQty);
+        if (stopped || stopping || !queue.offer(r)) {
+            fallbacks.incrementAndGet();
+            return dao.performPurchaseJdbc(distributorCode, beverageId, sugarQty);
+        }
+
+        try {
+            try {
+                return r.result.get(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // mai preso dallo scrittore: lo si ritira e non verrà eseguito
+                if (r.state.compareAndSet(PENDING, CANCELLED)) {
+                    rejected.incrementAndGet();
+                    throw new DaoException("Errore PurchaseLedger: acquisto non eseguito entro " + QUEUE_TIMEOUT_MS + " ms");
+                }
+                // già nel batch in corso: l'esito arriva con il commit, ma non si aspetta all'infinito uno scrittore bloccato
+                try {
+                    return r.result.get(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException stuck) {
+                    throw new DaoException("Errore PurchaseLedger: esito dell'acquisto non noto dopo "
+                            + (2 * QUEUE_TIMEOUT_MS) + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Errore PurchaseLedger: attesa interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DaoException de) throw de;
+            throw new DaoException("Errore PurchaseLedger.submit()", cause);
+        }
+    }
+
+    // avvio pigro al primo acquisto; mai dopo stop() (applicazione in chiusura, pool DB in spegnimento)
+    private static void ensureStarted() {
+        if (stopped || started.get() || !started.compareAndSet(false, true)) return;
+        Thread t = new Thread(PurchaseLedger::writerLoop, "purchase-ledger");
+        t.setDaemon(true);
+        writer = t;
+        t.start();
+    }
+
+    /**
+     * Riavvio esplicito dopo stop(); senza stop() non serve (lo scrittore parte al primo acquisto).
+     */
+    public static void start() {
+        stopped = false;
+        stopping = false;
+        // scrittore partito in gara con uno stop() e già uscito: si riparte da zero
+        Thread t = writer;
+        if (t != null && !t.isAlive()) {
+            writer = null;
+            started.set(false);
+        }
+        ensureStarted();
+    }
+
+    /**
+     * Ferma lo scrittore dopo aver eseguito gli acquisti già in coda (da chiamare prima di chiudere il pool DB).
+     * Da qui in poi gli acquisti vanno in modalità jdbc, finché non si richiama start().
+     */
+    public static void stop() {
+        stopped = true;
+        stopping = true;
+        Thread t = writer;
+        if (t == null) return;
+        t.interrupt();
+        try {
+            t.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        started.set(false);
+    }
+
+    private static void writerLoop() {
+        while (!stopping) {
+            List<Request> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!batch.isEmpty()) runBatch(batch);
+        }
+
+        // chiusura: quello che è rimasto in coda viene comunque eseguito
+        Thread.interrupted();
+        List<Request> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += MAX_BATCH) {
+            runBatch(rest.subList(i, Math.min(rest.size(), i + MAX_BATCH)));
+        }
+    }
+
+    private static List<Request> nextBatch() throws InterruptedException {
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        Request first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) return batch;
+        batch.add(first);
+
+        // finestra contata dall'arrivo del primo: sotto carico il batch si riempie prima, a vuoto si aspetta al più WINDOW_MS
+        long deadline = first.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(WINDOW_MS);
+        while (batch.size() < MAX_BATCH) {
+            long left = deadline - System.nanoTime();
+            Request r = (left > 0) ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+            if (r == null) break;
+            batch.add(r);
+        }
+        return batch;
+    }
+
+    private static void runBatch(List<Request> candidates) {
+        runBatch(candidates, DbConnectionManager::getConnection);
+    }
+
+    static void runBatch(List<Request> candidates, ConnectionSource source) {
+        List<Request> batch = new ArrayList<>(candidates.size());
+        for (Request r : candidates) {
+            if (r.state.compareAndSet(PENDING, CLAIMED)) batch.add(r);
+        }
+        if (batch.isEmpty()) return;
+
+        long t0 = System.nanoTime();
+        List<BigDecimal> credits = new ArrayList<>(batch.size());
+        List<DaoException> errors = new ArrayList<>(batch.size());
+
+        boolean commitStarted = false;
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Request r : batch) {
+                    Savepoint sp = conn.setSavepoint();
+                    try {
+                        credits.add(r.dao.purchaseSteps(conn, r.distributorCode, r.beverageId, r.sugarQty));
+                        errors.add(null);
+                        conn.releaseSavepoint(sp);
+                    } catch (DaoException e) {
+                        // esito di business: si annulla solo questo acquisto
+                        conn.rollback(sp);
+                        credits.add(null);
+                        errors.add(e);
+                    }
+                }
+                long c0 = System.nanoTime();
+                commitStarted = true;
+                conn.commit();
+                commitNanos.addAndGet(System.nanoTime() - c0);
+
+            } catch (SQLException | RuntimeException e) {
+                try { conn.rollback(); } catch (SQLException ignored) {}
+                throw e;
+            } finally {
+                try { conn.setAutoCommit(true); } catch (SQLException ignored) {}
+            }
+
+        } catch (SQLException | RuntimeException e) {
+            if (commitStarted) {
+                // il commit può essere andato a buon fine con la sola risposta persa: rifarlo addebiterebbe due volte
+                failUnknownOutcome(batch, errors, e);
+                return;
+            }
+            // errore tecnico prima del commit: il batch è stato annullato per intero, ogni acquisto si rifà nella sua transazione
+            batchRetries.incrementAndGet();
+            retryOneByOne(batch);
+            return;
+        }
+
+        int ok = 0;
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            Request r = batch.get(i);
+            if (errors.get(i) == null) {
+                ok++;
+                r.result.complete(credits.get(i));
+            } else {
+                r.result.completeExceptionally(errors.get(i));
+            }
+        }
+        committed.addAndGet(ok);
+        record(batch, now, t0);
+    }
+
+    private static void failUnknownOutcome(List<Request> batch, List<DaoException> errors, Exception cause) {
+        unknownOutcomes.incrementAndGet();
+        for (int i = 0; i < batch.size(); i++) {
+            // gli esiti di business erano già annullati dal savepoint: restano validi comunque sia andato il commit
+            DaoException business = (i < errors.size()) ? errors.get(i) : null;
+            batch.get(i).result.completeExceptionally(business != null ? business
+                    : new DaoException("Errore PurchaseLedger: commit fallito, esito dell'acquisto non noto", cause));
+        }
+    }
+
+    private static void retryOneByOne(List<Request> batch) {
+        for (Request r : batch) {
+            try {
+                r.result.complete(r.dao.performPurchaseJdbc(r.distributorCode, r.beverageId, r.sugarQty));
+                committed.incrementAndGet();
+            } catch (RuntimeException e) {
+                r.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void record(List<Request> batch, long completedNanos, long startedNanos) {
+        int size = batch.size();
+        batches.incrementAndGet();
+        maxBatch.accumulateAndGet(size, Math::max);
+
+        int b = bucketOf(size);
+        bucketBatches.incrementAndGet(b);
+        bucketItems.addAndGet(b, size);
+        // latenza vista dal cliente: dall'accodamento al commit (attesa della finestra compresa)
+        long latency = 0;
+        for (Request r : batch) latency += completedNanos - r.enqueuedNanos;
+        bucketLatencyNanos.addAndGet(b, latency);
+    }
+
+    private static int bucketOf(int size) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (size <= BUCKET_LIMITS[i]) return i;
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        s.running = writer != null;
+        s.queued = queue.size();
+        s.batches = batches.get();
+        s.committed = committed.get();
+        s.rejected = rejected.get();
+        s.fallbacks = fallbacks.get();
+        s.batchRetries = batchRetries.get();
+        s.unknownOutcomes = unknownOutcomes.get();
+        s.maxBatch = maxBatch.get();
+        s.avgCommitMicros = (s.batches == 0) ? 0 : commitNanos.get() / s.batches / 1_000;
+        s.windowMs = WINDOW_MS;
+        s.maxBatchSize = MAX_BATCH;
+
+        s.buckets = new ArrayList<>();
+        for (int i = 0; i <= BUCKET_LIMITS.length; i++) {
+            BucketStats bs = new BucketStats();
+            bs.label = (i == 0) ? "1"
+                    : (i < BUCKET_LIMITS.length) ? (BUCKET_LIMITS[i - 1] + 1) + "-" + BUCKET_LIMITS[i]
+                    : ">" + BUCKET_LIMITS[BUCKET_LIMITS.length - 1];
+            bs.batches = bucketBatches.get(i);
+            bs.purchases = bucketItems.get(i);
+            bs.avgLatencyMicros = (bs.purchases == 0) ? 0 : bucketLatencyNanos.get(i) / bs.purchases / 1_000;
+            s.buckets.add(bs);
+        }
+        return s;
+    }
+
+    public static class Stats {
+        public boolean running;
+        public int queued;
+        public long batches;
+        public long committed;
+        public long rejected;
+        public long fallbacks;
+        public long batchRetries;
+        public long unknownOutcomes; // batch con commit fallito: esito non noto, nessun replay
+        public long maxBatch;
+        public long avgCommitMicros;
+        public long windowMs;
+        public int maxBatchSize;
+        public List<BucketStats> buckets;
+    }
+
+    // per fascia di dimensione del batch: quanti batch/acquisti e latenza media (accodamento -> commit)
+    public static class BucketStats {
+        public String label;
+        public long batches;
+        public long purchases;
+        public long avgLatencyMicros;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -29,6 +29,27 @@ public class UserDAO {
     }
 
 
+    /**
+     * Solo il credito (dato che cambia): l'identità dell'utente è già in sessione.
+     */
+    public Optional<BigDecimal> findCreditById(long userId) {
+        String sql = "SELECT credit FROM users WHERE id = ?";
+
+        try (Connection conn = DbConnectionManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setLong(1, userId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return Optional.empty();
+                return Optional.ofNullable(rs.getBigDecimal("credit"));
+            }
+
+        } catch (SQLException e) {
+            throw new DaoException("Errore findCreditById()", e);
+        }
+    }
+
     public long createCustomer(String username, String email, String passwordHash) {
         String sql = "INSERT INTO users(username, email, password_hash, role, credit) VALUES(?, ?, ?, 'CUSTOMER', 0.00)";
 
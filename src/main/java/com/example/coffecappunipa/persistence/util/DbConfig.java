@@ -11,10 +11,27 @@ public class DbConfig {
     private final String user;
     private final String password;
 
-    private DbConfig(String url, String user, String password) {
+    // Pool (db.pool.*): tutti opzionali, con default ragionevoli per un singolo nodo
+    private final int poolMaxSize;
+    private final int poolMinIdle;
+    private final long poolConnectionTimeoutMs;
+    private final long poolValidationTimeoutMs;
+    private final long poolIdleTimeoutMs;
+    private final long poolMaxLifetimeMs;
+    private final long poolKeepaliveMs;
+
+    private DbConfig(String url, String user, String password, Properties props) {
         this.url = url;
         this.user = user;
         this.password = password;
+
+        this.poolMaxSize = (int) readLong(props, "db.pool.maxSize", 10);
+        this.poolMinIdle = (int) readLong(props, "db.pool.minIdle", 2);
+        this.poolConnectionTimeoutMs = readLong(props, "db.pool.connectionTimeoutMs", 3_000);
+        this.poolValidationTimeoutMs = readLong(props, "db.pool.validationTimeoutMs", 1_000);
+        this.poolIdleTimeoutMs = readLong(props, "db.pool.idleTimeoutMs", 300_000);
+        this.poolMaxLifetimeMs = readLong(props, "db.pool.maxLifetimeMs", 1_800_000);
+        this.poolKeepaliveMs = readLong(props, "db.pool.keepaliveMs", 120_000);
     }
 
     public static DbConfig load() {
@@ -37,10 +54,28 @@ public class DbConfig {
             throw new IllegalStateException("Proprietà db.* mancanti in application.properties");
         }
 
-        return new DbConfig(url.trim(), user.trim(), password.trim());
+        return new DbConfig(url.trim(), user.trim(), password.trim(), props);
+    }
+
+    private static long readLong(Properties props, String key, long def) {
+        String v = props.getProperty(key);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Valore non numerico per " + key + ": " + v, e);
+        }
     }
 
     public String getUrl() { return url; }
     public String getUser() { return user; }
     public String getPassword() { return password; }
-}
\ No newline at end of file
+
+    public int getPoolMaxSize() { return poolMaxSize; }
+    public int getPoolMinIdle() { return poolMinIdle; }
+    public long getPoolConnectionTimeoutMs() { return poolConnectionTimeoutMs; }
+    public long getPoolValidationTimeoutMs() { return poolValidationTimeoutMs; }
+    public long getPoolIdleTimeoutMs() { return poolIdleTimeoutMs; }
+    public long getPoolMaxLifetimeMs() { return poolMaxLifetimeMs; }
+    public long getPoolKeepaliveMs() { return poolKeepaliveMs; }
+}
@@ -1,24 +1,154 @@
 package com.example.coffecappunipa.persistence.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Punto unico di accesso al DB per tutti i DAO.
+ * Le connessioni vengono prese in prestito da un pool (HikariCP) limitato e configurato
+ * con le chiavi db.* / db.pool.* di application.properties: close() le restituisce al pool.
+ */
 public class DbConnectionManager {
 
-    private static final DbConfig CONFIG = DbConfig.load();
+    private static final String POOL_NAME = "coffe-db-pool";
+
+    // Metriche di attesa (tempo per ottenere una connessione dal pool)
+    private static final AtomicLong ACQUIRE_COUNT = new AtomicLong();
+    private static final AtomicLong ACQUIRE_TOTAL_NANOS = new AtomicLong();
+    private static final AtomicLong ACQUIRE_MAX_NANOS = new AtomicLong();
+    private static final AtomicLong ACQUIRE_TIMEOUTS = new AtomicLong();
 
     private DbConnectionManager() {}
 
+    // Inizializzazione lazy: il pool nasce alla prima getConnection(), non al load della classe
+    private static final class Holder {
+        private static final HikariDataSource DATA_SOURCE = createDataSource(DbConfig.load());
+    }
+
+    private static volatile boolean initialized;
+
     public static Connection getConnection() {
         try {
-            return DriverManager.getConnection(
-                    CONFIG.getUrl(),
-                    CONFIG.getUser(),
-                    CONFIG.getPassword()
-            );
+            return Holder.DATA_SOURCE.getConnection();
         } catch (SQLException e) {
-            throw new DaoException("Errore connessione DB (JDBC). Controlla db.url/db.user/db.password.", e);
+            throw new DaoException("Errore connessione DB (JDBC pool). Controlla db.url/db.user/db.password.", e);
+        }
+    }
+
+    private static HikariDataSource createDataSource(DbConfig cfg) {
+        HikariConfig hc = new HikariConfig();
+        hc.setPoolName(POOL_NAME);
+        hc.setJdbcUrl(cfg.getUrl());
+        hc.setUsername(cfg.getUser());
+        hc.setPassword(cfg.getPassword());
+
+        // Dimensionamento
+        hc.setMaximumPoolSize(cfg.getPoolMaxSize());
+        hc.setMinimumIdle(Math.min(cfg.getPoolMinIdle(), cfg.getPoolMaxSize()));
+
+        // Timeout di acquisizione / validazione (JDBC4 isValid(), niente test query)
+        hc.setConnectionTimeout(cfg.getPoolConnectionTimeoutMs());
+        hc.setValidationTimeout(cfg.getPoolValidationTimeoutMs());
+
+        // Eviction idle + vita massima (sotto il wait_timeout di MySQL) + keepalive
+        hc.setIdleTimeout(cfg.getPoolIdleTimeoutMs());
+        hc.setMaxLifetime(cfg.getPoolMaxLifetimeMs());
+        hc.setKeepaliveTime(cfg.getPoolKeepaliveMs());
+
+        // Se il DB è giù all'avvio il pool nasce comunque: l'errore arriva alla getConnection()
+        hc.setInitializationFailTimeout(-1);
+        hc.setAutoCommit(true);
+
+        // Cache dei PreparedStatement lato driver (MySQL Connector/J)
+        hc.addDataSourceProperty("cachePrepStmts", "true");
+        hc.addDataSourceProperty("prepStmtCacheSize", "250");
+        hc.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+
+        // Esposizione JMX (com.zaxxer.hikari:type=Pool (coffe-db-pool))
+        hc.setRegisterMbeans(true);
+        hc.setMetricsTrackerFactory(new WaitTimeTrackerFactory());
+
+        HikariDataSource ds = new HikariDataSource(hc);
+        initialized = true;
+        return ds;
+    }
+
+    /**
+     * Chiude il pool (chiamato allo shutdown dell'applicazione).
+     */
+    public static void shutdown() {
+        if (!initialized) return;
+        Holder.DATA_SOURCE.close();
+    }
+
+    /**
+     * Fotografia dello stato del pool, per il tuning sotto carico.
+     */
+    public static PoolStats getPoolStats() {
+        PoolStats s = new PoolStats();
+        s.initialized = initialized;
+        if (!initialized) return s;
+
+        HikariDataSource ds = Holder.DATA_SOURCE;
+        s.maxSize = ds.getMaximumPoolSize();
+        s.minIdle = ds.getMinimumIdle();
+        s.connectionTimeoutMs = ds.getConnectionTimeout();
+
+        HikariPoolMXBean mx = ds.getHikariPoolMXBean();
+        if (mx != null) {
+            s.active = mx.getActiveConnections();
+            s.idle = mx.getIdleConnections();
+            s.total = mx.getTotalConnections();
+            s.waiting = mx.getThreadsAwaitingConnection();
+        }
+
+        long count = ACQUIRE_COUNT.get();
+        s.acquireCount = count;
+        s.acquireTimeouts = ACQUIRE_TIMEOUTS.get();
+        s.acquireAvgMicros = (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(ACQUIRE_TOTAL_NANOS.get() / count);
+        s.acquireMaxMicros = TimeUnit.NANOSECONDS.toMicros(ACQUIRE_MAX_NANOS.get());
+        return s;
+    }
+
+    public static class PoolStats {
+        public boolean initialized;
+        public int maxSize;
+        public int minIdle;
+        public long connectionTimeoutMs;
+        public int active;
+        public int idle;
+        public int total;
+        public int waiting;
+        public long acquireCount;
+        public long acquireTimeouts;
+        public long acquireAvgMicros;
+        public long acquireMaxMicros;
+    }
+
+    private static class WaitTimeTrackerFactory implements MetricsTrackerFactory {
+        @Override
+        public IMetricsTracker create(String poolName, com.zaxxer.hikari.metrics.PoolStats poolStats) {
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    ACQUIRE_COUNT.incrementAndGet();
+                    ACQUIRE_TOTAL_NANOS.addAndGet(elapsedAcquiredNanos);
+                    ACQUIRE_MAX_NANOS.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    ACQUIRE_TIMEOUTS.incrementAndGet();
+                }
+            };
         }
     }
 }
@@ -0,0 +1,178 @@
+package com.example.coffecappunipa.persistence.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiPredicate;
+
+/**
+ * Cache in memoria con scadenza (TTL) per voce e dimensione massima.
+ * Quando è piena prima rimuove le voci scadute, poi (se serve) ne scarta altre
+ * fino a rientrare nel limite. Conta hit, miss ed eviction.
+ * Caricamento dopo un miss: leggere {@link #generation(Object)} PRIMA della query e passarla a
+ * {@link #put(Object, Object, long, TimeUnit, long)}; se nel frattempo la voce è stata invalidata il valore
+ * (forse già vecchio) non entra in cache. Le generazioni sono a strisce (hash della chiave): un'invalidazione
+ * può scartare anche il caricamento di un'altra chiave della stessa striscia, mai lasciar passare un valore vecchio.
+ */
+public class TtlCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAtNanos;
+
+        Entry(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private static final int GENERATION_STRIPES = 64; // potenza di 2
+
+    private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong staleRejected = new AtomicLong();
+
+    public TtlCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize deve essere > 0");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Ritorna il valore in cache (anche null se è stato messo così) oppure null se assente/scaduto.
+     * Per distinguere "assente" da "valore null" usare {@link #containsFresh(Object)} o un wrapper (es. Optional).
+     */
+    public V get(K key) {
+        Entry<V> e = map.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.nanoTime() - e.expiresAtNanos >= 0) {
+            map.remove(key, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.value;
+    }
+
+    public boolean containsFresh(K key) {
+        Entry<V> e = map.get(key);
+        return e != null && System.nanoTime() - e.expiresAtNanos < 0;
+    }
+
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (map.size() >= maxSize && !map.containsKey(key)) {
+            makeRoom();
+        }
+        map.put(key, new Entry<>(value, System.nanoTime() + unit.toNanos(ttl)));
+    }
+
+    /**
+     * Generazione corrente della chiave, da leggere prima di caricare il valore dalla sorgente.
+     */
+    public long generation(K key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Come put(), ma solo se la chiave non è stata invalidata dopo {@link #generation(Object)}.
+     * @return false se il valore è stato scartato perché caricato prima di un'invalidazione
+     */
+    public boolean put(K key, V value, long ttl, TimeUnit unit, long generation) {
+        if (map.size() >= maxSize && !map.containsKey(key)) {
+            makeRoom();
+        }
+        Entry<V> fresh = new Entry<>(value, System.nanoTime() + unit.toNanos(ttl));
+        int stripe = stripe(key);
+        // controllo e scrittura nella stessa compute(): un'invalidazione incrementa la generazione PRIMA di rimuovere,
+        // quindi o la compute vede la generazione nuova, o la voce scritta viene rimossa subito dopo
+        Entry<V> e = map.compute(key, (k, old) -> generations.get(stripe) == generation ? fresh : old);
+        if (e == fresh) return true;
+        staleRejected.incrementAndGet();
+        return false;
+    }
+
+    public void invalidate(K key) {
+        generations.incrementAndGet(stripe(key));
+        map.remove(key);
+    }
+
+    /**
+     * Rimuove tutte le voci che soddisfano il predicato (scansione completa: da usare per eventi rari).
+     * Non sapendo quali chiavi sono in caricamento, invalida la generazione di tutte.
+     */
+    public void invalidateIf(BiPredicate<K, V> predicate) {
+        bumpAllGenerations();
+        map.entrySet().removeIf(e -> predicate.test(e.getKey(), e.getValue().value));
+    }
+
+    public void clear() {
+        bumpAllGenerations();
+        map.clear();
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.size = map.size();
+        s.maxSize = maxSize;
+        s.hits = hits.get();
+        s.misses = misses.get();
+        s.evictions = evictions.get();
+        s.staleRejected = staleRejected.get();
+        return s;
+    }
+
+    public static class Stats {
+        public int size;
+        public int maxSize;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long staleRejected; // caricamenti scartati perché la voce è stata invalidata nel frattempo
+    }
+
+    public int size() { return map.size(); }
+    public int getMaxSize() { return maxSize; }
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+
+    private int stripe(K key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private void bumpAllGenerations() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) generations.incrementAndGet(i);
+    }
+
+    private void makeRoom() {
+        long now = System.nanoTime();
+
+        // 1) via le scadute
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().expiresAtNanos >= 0) {
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        // 2) ancora piena: scarto voci arbitrarie (ordine di iterazione della mappa)
+        it = map.entrySet().iterator();
+        while (map.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.coffecappunipa.security;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * Principal dell'applicazione: oltre a username/password/ruoli porta l'id dell'utente (immutabile),
+ * così le servlet non devono rileggere users solo per ricavarlo dallo username.
+ */
+public class AppUserDetails extends User {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+
+    public AppUserDetails(long id, String username, String password, Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, authorities);
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
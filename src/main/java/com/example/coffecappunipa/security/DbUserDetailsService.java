@@ -27,7 +27,8 @@ public class DbUserDetailsService implements UserDetailsService {
             throw new UsernameNotFoundException("User has no password_hash");
         }
 
-        return new User(
+        return new AppUserDetails(
+                u.getId(),
                 u.getUsername(),
                 pwdHash,
                 List.of(new SimpleGrantedAuthority("ROLE_" + role))
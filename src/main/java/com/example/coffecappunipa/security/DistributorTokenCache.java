@@ -0,0 +1,71 @@
+package com.example.coffecappunipa.security;
+
+import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+import com.example.coffecappunipa.persistence.util.TtlCache;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache token -> codice distributore usata da DistributorTokenFilter.
+ * - hit positivo: nessuna query su distributors (security_token non è indicizzato)
+ * - lookup negativi in cache per poco tempo: un device che ripete un token morto non martella il DB
+ * Va invalidata quando un token viene emesso (boot) o annullato (reset, eliminazione del distributore).
+ * Nota: la cache è per singola istanza; il TTL positivo limita la finestra in cui un token
+ * resettato da un altro nodo resta valido qui.
+ */
+public final class DistributorTokenCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+    private static final long POSITIVE_TTL_SECONDS = 60;
+    private static final long NEGATIVE_TTL_SECONDS = 10;
+
+    // Optional.empty() = token sconosciuto (lookup negativo)
+    private static final TtlCache<String, Optional<String>> CACHE = new TtlCache<>(MAX_ENTRIES);
+
+    private static final DistributorDAO distributorDAO = new DistributorDAO();
+
+    private DistributorTokenCache() {}
+
+    /**
+     * Ritorna il codice del distributore associato al token, oppure null se il token non è valido.
+     */
+    public static String findCodeByToken(String token) {
+        if (token == null || token.isBlank()) return null;
+
+        Optional<String> cached = CACHE.get(token);
+        if (cached != null) return cached.orElse(null);
+
+        // generazione letta prima della query: un reset concorrente impedisce di rimettere in cache il token annullato
+        long gen = CACHE.generation(token);
+        String code = distributorDAO.findCodeBySecurityToken(token);
+        if (code != null) {
+            CACHE.put(token, Optional.of(code), POSITIVE_TTL_SECONDS, TimeUnit.SECONDS, gen);
+        } else {
+            CACHE.put(token, Optional.empty(), NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS, gen);
+        }
+        return code;
+    }
+
+    /**
+     * Nuovo token emesso (boot): rimuove eventuali voci del codice e registra subito il token.
+     */
+    public static void tokenIssued(String code, String token) {
+        invalidateCode(code);
+        if (token != null) {
+            CACHE.put(token, Optional.of(code), POSITIVE_TTL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Token annullato (reset, distributore eliminato): nessun token in cache deve più risolvere su questo codice.
+     */
+    public static void invalidateCode(String code) {
+        if (code == null) return;
+        CACHE.invalidateIf((tok, val) -> val.isPresent() && code.equals(val.get()));
+    }
+
+    public static TtlCache.Stats getStats() {
+        return CACHE.getStats();
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.coffecappunipa.security;
 
-import com.example.coffecappunipa.persistence.dao.DistributorDAO;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -19,8 +18,6 @@ import java.util.List;
  */
 public class DistributorTokenFilter extends OncePerRequestFilter {
 
-    private final DistributorDAO distributorDAO = new DistributorDAO();
-
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
 
@@ -30,8 +27,8 @@ public class DistributorTokenFilter extends OncePerRequestFilter {
         // 2. Se c'è un token e l'utente non è già autenticato (es. non è un cliente loggato)
         if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
 
-            // 3. Verifica nel DB se il token esiste
-            String distributorCode = distributorDAO.findCodeBySecurityToken(token);
+            // 3. Verifica se il token esiste (cache in memoria, DB solo in caso di miss)
+            String distributorCode = DistributorTokenCache.findCodeByToken(token);
 
             if (distributorCode != null) {
                 // 4. CREA L'IDENTITÀ (Authentication)
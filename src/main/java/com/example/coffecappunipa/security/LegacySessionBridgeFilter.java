@@ -28,6 +28,13 @@ public class LegacySessionBridgeFilter extends OncePerRequestFilter {
 
             HttpSession session = request.getSession(true);
 
+            // nuovo login sulla stessa sessione (gli attributi vengono copiati dalla session fixation protection):
+            // l'id in sessione è dell'utente precedente e non va riusato
+            Object previous = session.getAttribute(RoutingServlet.SESSION_USERNAME);
+            if (previous != null && !previous.toString().equals(auth.getName())) {
+                session.removeAttribute(RoutingServlet.SESSION_USER_ID);
+            }
+
             // usa ESATTAMENTE le chiavi legacy:
             session.setAttribute(RoutingServlet.SESSION_USERNAME, auth.getName());
 
@@ -41,6 +48,11 @@ public class LegacySessionBridgeFilter extends OncePerRequestFilter {
             if (role != null) {
                 session.setAttribute(RoutingServlet.SESSION_ROLE, role);
             }
+
+            // sempre insieme a username e ruolo: mai un id rimasto da un'altra identità
+            if (auth.getPrincipal() instanceof AppUserDetails principal) {
+                session.setAttribute(RoutingServlet.SESSION_USER_ID, principal.getId());
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -81,7 +81,9 @@ public class SecurityConfig {
                                 "/api/distributor/poll",
                                 "/api/distributor/beverages",
                                 "/api/distributor/purchase",
-                                "/api/distributor/reset"
+                                "/api/distributor/reset",
+                                "/api/distributor/heartbeat",
+                                "/api/distributor/events"
                         ).hasRole("DISTRIBUTOR")
 
                         // 4. API GESTORE
@@ -0,0 +1,42 @@
+package com.example.coffecappunipa.web;
+
+import com.example.coffecappunipa.persistence.dao.PurchaseLedger;
+import com.example.coffecappunipa.persistence.util.DbConnectionManager;
+import com.example.coffecappunipa.web.monitor.HeartbeatAggregator;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import com.example.coffecappunipa.web.monitor.MonitorOutboxDispatcher;
+import com.example.coffecappunipa.web.monitor.MonitorReconciler;
+import com.example.coffecappunipa.web.monitor.MonitorStatusSnapshot;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Avvio/arresto delle risorse condivise dell'applicazione (pool DB, servizi in background verso il monitor, ...).
+ */
+@WebListener
+public class AppLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        // il pool DB nasce alla prima richiesta; la fotografia del monitor parte subito
+        MonitorStatusSnapshot.start();
+        MonitorOutboxDispatcher.start();
+        MonitorReconciler.start();
+        HeartbeatTracker.start();
+        HeartbeatAggregator.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        HeartbeatAggregator.stop();
+        HeartbeatTracker.stop();
+        MonitorReconciler.stop();
+        MonitorOutboxDispatcher.stop();
+        MonitorStatusSnapshot.stop();
+        // gli acquisti ancora in coda vanno scritti prima di chiudere il pool
+        PurchaseLedger.stop();
+        DbConnectionManager.shutdown();
+    }
+}
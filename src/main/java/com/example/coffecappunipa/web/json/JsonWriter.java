@@ -0,0 +1,277 @@
+package com.example.coffecappunipa.web.json;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Writer JSON minimale e in streaming verso il Writer della risposta, senza costruire la stringa completa
+ * né stringhe intermedie: i caratteri finiscono in un buffer char[] riusato dallo stesso thread (pool per thread)
+ * che viene riversato sul Writer a blocchi, quando è pieno e alla chiusura del valore radice.
+ * Le virgole le gestisce il writer; l'escaping è a passata singola e copre anche i caratteri di controllo.
+ *
+ * Convenzione ereditata dai vecchi escJson(): una String null viene scritta come "" (usare nullValue() per null).
+ *
+ * Uso tipico:
+ *   JsonWriter json = JsonWriter.of(resp);
+ *   json.beginObject().field("ok", true).name("items").beginArray();
+ *   ...
+ *   json.endArray().endObject();
+ */
+public final class JsonWriter {
+
+    private static final int MAX_DEPTH = 64;
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // un buffer libero per thread: preso all'inizio del documento, restituito alla fine
+    private static final ThreadLocal<char[]> POOL = new ThreadLocal<>();
+
+    private final Writer out;
+    private char[] buf;
+    private int pos;
+
+    // bit i = il contenitore al livello i ha già almeno un elemento (serve la virgola)
+    private long hasElements;
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+        char[] pooled = POOL.get();
+        if (pooled != null) {
+            POOL.remove(); // in uso: un eventuale JsonWriter annidato sullo stesso thread ne alloca un altro
+            this.buf = pooled;
+        } else {
+            this.buf = new char[BUFFER_SIZE];
+        }
+    }
+
+    public static JsonWriter of(HttpServletResponse resp) throws IOException {
+        return new JsonWriter(resp.getWriter());
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        put('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop();
+        put('}');
+        if (depth == 0) finish();
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        put('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop();
+        put(']');
+        if (depth == 0) finish();
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (afterName) throw new IllegalStateException("name() dopo name()");
+        comma();
+        put('"');
+        escape(name);
+        put('"');
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String s) throws IOException {
+        beforeValue();
+        put('"');
+        if (s != null) escape(s);
+        put('"');
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException {
+        beforeValue();
+        putLong(v);
+        return this;
+    }
+
+    public JsonWriter value(boolean v) throws IOException {
+        beforeValue();
+        put(v ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Importi: sempre in notazione piana (toPlainString), null come null.
+     */
+    public JsonWriter value(BigDecimal v) throws IOException {
+        if (v == null) return nullValue();
+        beforeValue();
+        put(v.toPlainString());
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        put("null");
+        return this;
+    }
+
+    public JsonWriter field(String name, String v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public JsonWriter field(String name, long v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public JsonWriter field(String name, boolean v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public JsonWriter field(String name, BigDecimal v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Escaping JSON a passata singola: i tratti senza caratteri speciali vengono copiati in blocco.
+     * Oltre a " e \ gestisce i caratteri di controllo (U+0000..U+001F) e U+2028/U+2029 (sicuri anche dentro <script>).
+     */
+    private void escape(String s) throws IOException {
+        int start = 0;
+        int len = s.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') continue;
+
+            if (i > start) put(s, start, i - start);
+            start = i + 1;
+
+            switch (c) {
+                case '"' -> put("\\\"");
+                case '\\' -> put("\\\\");
+                case '\n' -> put("\\n");
+                case '\r' -> put("\\r");
+                case '\t' -> put("\\t");
+                case '\b' -> put("\\b");
+                case '\f' -> put("\\f");
+                default -> {
+                    put('\\');
+                    put('u');
+                    put(HEX[(c >> 12) & 0xF]);
+                    put(HEX[(c >> 8) & 0xF]);
+                    put(HEX[(c >> 4) & 0xF]);
+                    put(HEX[c & 0xF]);
+                }
+            }
+        }
+
+        if (start < len) put(s, start, len - start);
+    }
+
+    private void put(char c) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = c;
+    }
+
+    private void put(String s) throws IOException {
+        put(s, 0, s.length());
+    }
+
+    private void put(String s, int off, int len) throws IOException {
+        if (len > buf.length - pos) {
+            drain();
+            if (len > buf.length) {
+                out.write(s, off, len);
+                return;
+            }
+        }
+        s.getChars(off, off + len, buf, pos);
+        pos += len;
+    }
+
+    // cifre scritte direttamente nel buffer (niente Long.toString)
+    private void putLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            put(Long.toString(v));
+            return;
+        }
+        if (buf.length - pos < 20) drain();
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int end = pos + digits(v);
+        int i = end;
+        do {
+            buf[--i] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        pos = end;
+    }
+
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) {
+            v /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private void drain() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    // fine del valore radice: svuota il buffer e lo rimette a disposizione del thread
+    private void finish() throws IOException {
+        drain();
+        if (POOL.get() == null) POOL.set(buf);
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        comma();
+    }
+
+    private void comma() throws IOException {
+        if (depth == 0) return;
+        long bit = 1L << (depth - 1);
+        if ((hasElements & bit) != 0) put(',');
+        else hasElements |= bit;
+    }
+
+    private void push() {
+        if (depth >= MAX_DEPTH) throw new IllegalStateException("JSON troppo annidato");
+        depth++;
+        hasElements &= ~(1L << (depth - 1));
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) throw new IllegalStateException("JSON non bilanciato");
+        depth--;
+    }
+}
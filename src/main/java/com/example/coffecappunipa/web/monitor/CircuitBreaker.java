@@ -0,0 +1,156 @@
+package com.example.coffecappunipa.web.monitor;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker minimale (CLOSED -> OPEN -> HALF_OPEN -> CLOSED) per un servizio remoto.
+ * - CLOSED: le chiamate passano; dopo failureThreshold fallimenti consecutivi si apre
+ * - OPEN: le chiamate vengono rifiutate subito per openMs (niente attese sul connect timeout)
+ * - HALF_OPEN: passano al massimo halfOpenProbes chiamate di prova; un successo richiude, un fallimento riapre
+ * Lock esplicito invece di synchronized: con i virtual thread (Java 21) un blocco dentro synchronized
+ * (qui la println sulle transizioni) terrebbe occupato il carrier thread.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+    private final int halfOpenProbes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+    private int probesInFlight;
+
+    private long rejectedCount;
+    private long openCount;
+    private long failureCount;
+    private long successCount;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs, int halfOpenProbes) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(0, openMs);
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * true se la chiamata può partire. Chi ottiene true deve poi chiamare onSuccess/onFailure/onIgnored.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAtMillis < openMs) {
+                    rejectedCount++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight >= halfOpenProbes) {
+                    rejectedCount++;
+                    return false;
+                }
+                probesInFlight++;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        lock.lock();
+        try {
+            successCount++;
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                probesInFlight = 0;
+                System.err.println("[" + name + "] circuit breaker CLOSED: servizio di nuovo raggiungibile");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onFailure() {
+        lock.lock();
+        try {
+            failureCount++;
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAtMillis = System.currentTimeMillis();
+                probesInFlight = 0;
+                openCount++;
+                System.err.println("[" + name + "] circuit breaker OPEN per " + openMs + "ms dopo "
+                        + consecutiveFailures + " fallimenti consecutivi");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * La chiamata autorizzata non è partita (es. bulkhead pieno): libera il permesso senza cambiare stato.
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN && probesInFlight > 0) probesInFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * true se una chiamata adesso verrebbe (probabilmente) accettata; non consuma permessi.
+     */
+    public boolean isCallPermitted() {
+        lock.lock();
+        try {
+            return state != State.OPEN || System.currentTimeMillis() - openedAtMillis >= openMs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            Stats s = new Stats();
+            s.state = state.name();
+            s.consecutiveFailures = consecutiveFailures;
+            s.openForMs = (state == State.OPEN) ? Math.max(0, openMs - (System.currentTimeMillis() - openedAtMillis)) : 0;
+            s.rejected = rejectedCount;
+            s.opens = openCount;
+            s.failures = failureCount;
+            s.successes = successCount;
+            s.failureThreshold = failureThreshold;
+            s.openMs = openMs;
+            return s;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Stats {
+        public String state;
+        public int consecutiveFailures;
+        public long openForMs;   // tempo residuo prima del prossimo HALF_OPEN
+        public long rejected;    // chiamate rifiutate a circuito aperto
+        public long opens;
+        public long failures;
+        public long successes;
+        public int failureThreshold;
+        public long openMs;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.coffecappunipa.web.monitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Inoltro degli heartbeat al monitor a blocchi, invece di una POST sincrona per heartbeat sul thread della richiesta.
+ * - offer() mette il codice in un insieme e ritorna subito: nella stessa finestra più heartbeat dello stesso
+ *   distributore diventano uno solo (al monitor interessa solo "vivo negli ultimi FLUSH_MS")
+ * - ogni FLUSH_MS un thread in background svuota l'insieme e spedisce blocchi da BATCH_SIZE codici
+ * - oltre MAX_PENDING codici in attesa i nuovi vengono scartati (contati), la liveness locale resta in HeartbeatTracker
+ * - blocco fallito => i codici tornano in attesa per la finestra successiva
+ * - se il monitor non ha l'endpoint batch si ripiega su una POST per codice, sempre da qui e già deduplicate
+ */
+public final class HeartbeatAggregator {
+
+    private static final long FLUSH_MS = Math.max(100, envLong("HEARTBEAT_FLUSH_MS", 5_000));
+    private static final int BATCH_SIZE = (int) Math.max(1, envLong("HEARTBEAT_BATCH_SIZE", 200));
+    private static final int MAX_PENDING = (int) Math.max(1, envLong("HEARTBEAT_MAX_PENDING", 10_000));
+
+    private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // dimensione tenuta a parte: size() di una ConcurrentHashMap costa un giro sui contatori
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    // true dopo stop(): offer() non riavvia più il thread (solo uno start() esplicito)
+    private static volatile boolean stopped;
+    // avvio/arresto; mai tenuto durante attese o I/O (l'ultimo invio di stop() avviene fuori)
+    private static final ReentrantLock lifecycle = new ReentrantLock();
+    private static volatile ScheduledExecutorService scheduler;
+
+    // diventa false alla prima risposta 404/405 dell'endpoint batch
+    private static volatile boolean batchEndpoint = true;
+
+    private static final AtomicLong received = new AtomicLong();
+    private static final AtomicLong merged = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong flushes = new AtomicLong();
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong forwarded = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static volatile int lastFlushCodes;
+    private static volatile long lastFlushMs = -1;
+    private static volatile String lastError;
+
+    private HeartbeatAggregator() {}
+
+    public static void start() {
+        lifecycle.lock();
+        try {
+            stopped = false;
+            if (!started.compareAndSet(false, true)) return;
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "heartbeat-forwarder");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(HeartbeatAggregator::flush, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            lifecycle.unlock();
+        }
+    }
+
+    /**
+     * Ferma il thread e prova un ultimo invio di quanto è in attesa.
+     */
+    public static void stop() {
+        ScheduledExecutorService s;
+        lifecycle.lock();
+        try {
+            stopped = true;
+            s = scheduler;
+        } finally {
+            lifecycle.unlock();
+        }
+        // attesa del thread e ultimo invio fuori dal lock: un offer() concorrente non resta fermo dietro all'HTTP
+        if (s != null) {
+            s.shutdownNow();
+            try {
+                s.awaitTermination(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (started.getAndSet(false)) flush();
+    }
+
+    /**
+     * Accoda un heartbeat da inoltrare al monitor. Non blocca mai.
+     */
+    public static void offer(String code) {
+        if (code == null || code.isBlank()) return;
+        received.incrementAndGet();
+        if (!started.get() && !startLazily()) {
+            // applicazione in chiusura: nessuno invierebbe più il codice
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (pendingCount.get() >= MAX_PENDING) {
+            if (pending.contains(code)) merged.incrementAndGet();
+            else dropped.incrementAndGet();
+            return;
+        }
+        if (pending.add(code)) pendingCount.incrementAndGet();
+        else merged.incrementAndGet();
+    }
+
+    // primo offer() prima dello start all'avvio dell'applicazione; dopo stop() non riparte
+    private static boolean startLazily() {
+        lifecycle.lock();
+        try {
+            if (stopped) return false;
+            start();
+            return true;
+        } finally {
+            lifecycle.unlock();
+        }
+    }
+
+    private static void flush() {
+        if (pendingCount.get() == 0) return;
+        // circuito aperto: si resta in attesa (i duplicati continuano a fondersi)
+        if (!MonitorClient.isAvailable()) return;
+
+        long t0 = System.nanoTime();
+        int sent = 0;
+        try {
+            List<String> batch = new ArrayList<>(Math.min(BATCH_SIZE, pendingCount.get()));
+            Iterator<String> it = pending.iterator();
+            while (it.hasNext()) {
+                String code = it.next();
+                it.remove();
+                pendingCount.decrementAndGet();
+                batch.add(code);
+
+                if (batch.size() >= BATCH_SIZE) {
+                    if (!send(batch)) return;
+                    sent += batch.size();
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty() && send(batch)) sent += batch.size();
+
+        } finally {
+            flushes.incrementAndGet();
+            lastFlushCodes = sent;
+            lastFlushMs = (System.nanoTime() - t0) / 1_000_000;
+        }
+    }
+
+    /**
+     * @return false se l'invio è fallito: i codici sono tornati in attesa e il giro si interrompe
+     */
+    private static boolean send(List<String> batch) {
+        try {
+            if (batchEndpoint) {
+                requests.incrementAndGet();
+                if (MonitorClient.sendHeartbeatBatch(batch)) {
+                    forwarded.addAndGet(batch.size());
+                    lastError = null;
+                    return true;
+                }
+                batchEndpoint = false;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                requests.incrementAndGet();
+                MonitorClient.sendHeartbeat(batch.get(i));
+                forwarded.incrementAndGet();
+                batch.set(i, null); // inviato: non va rimesso in attesa
+            }
+            lastError = null;
+            return true;
+
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            lastError = e.getMessage();
+            requeue(batch);
+            return false;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requeue(batch);
+            return false;
+        }
+    }
+
+    private static void requeue(List<String> batch) {
+        for (String code : batch) {
+            if (code != null && pending.add(code)) pendingCount.incrementAndGet();
+        }
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        s.running = started.get();
+        s.pending = pendingCount.get();
+        s.received = received.get();
+        s.merged = merged.get();
+        s.dropped = dropped.get();
+        s.flushes = flushes.get();
+        s.requests = requests.get();
+        s.forwarded = forwarded.get();
+        s.failed = failed.get();
+        s.lastFlushCodes = lastFlushCodes;
+        s.lastFlushMs = lastFlushMs;
+        s.lastError = lastError;
+        s.batchEndpoint = batchEndpoint;
+        s.flushMs = FLUSH_MS;
+        s.batchSize = BATCH_SIZE;
+        s.maxPending = MAX_PENDING;
+        return s;
+    }
+
+    public static class Stats {
+        public boolean running;
+        public int pending;
+        public long received;
+        public long merged;   // heartbeat fusi con uno già in attesa
+        public long dropped;  // scartati per coda piena o dopo stop()
+        public long flushes;
+        public long requests; // POST verso il monitor
+        public long forwarded;
+        public long failed;
+        public int lastFlushCodes;
+        public long lastFlushMs;
+        public String lastError;
+        public boolean batchEndpoint;
+        public long flushMs;
+        public int batchSize;
+        public int maxPending;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
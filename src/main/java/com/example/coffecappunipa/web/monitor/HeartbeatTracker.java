@@ -0,0 +1,304 @@
+package com.example.coffecappunipa.web.monitor;
+
+import com.example.coffecappunipa.persistence.dao.DistributorCodeCache;
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liveness dei distributori calcolata in-process a partire dagli heartbeat del distributore stesso
+ * (/api/distributor/heartbeat, /monitor/heartbeat col token del distributore, boot).
+ * - per distributore un record compatto (ultimo heartbeat, stato FAULT); un heartbeat costa una scrittura volatile
+ * - le scadenze stanno in una ruota temporale (hashed timing wheel): a ogni tick si guarda un solo slot,
+ *   mai tutti i distributori; un record rinnovato nel frattempo viene solo spostato allo slot della nuova scadenza
+ * - nessun heartbeat per TIMEOUT_MS su un distributore ACTIVE nel DB => FAULT locale; al primo heartbeat successivo torna ok
+ * Le transizioni le fa solo il thread della ruota; le servlet leggono overlay()/isFault() in O(1).
+ */
+public final class HeartbeatTracker {
+
+    private static final long TIMEOUT_MS = envLong("HEARTBEAT_TIMEOUT_MS", 180_000); // 3 heartbeat persi (uno ogni 60s)
+    private static final long TICK_MS = Math.max(10, envLong("HEARTBEAT_TICK_MS", 1_000));
+    private static final int WHEEL_SLOTS = 512; // potenza di 2: con tick da 1s un giro copre ~8 minuti
+
+    /**
+     * Stato del distributore nel DB principale (DistributorCodeCache; nei test una mappa).
+     */
+    @FunctionalInterface
+    interface StatusLookup {
+        String find(String code);
+    }
+
+    private static final class Beat {
+        final String code;
+        volatile long lastBeatMillis;
+        volatile boolean fault;
+        // true finché il record è nella ruota o in attesa di entrarci
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        // usato solo dal thread della ruota
+        long deadlineTick;
+
+        Beat(String code) {
+            this.code = code;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Beat> beats = new ConcurrentHashMap<>();
+    private static final ConcurrentLinkedQueue<Beat> incoming = new ConcurrentLinkedQueue<>();
+
+    @SuppressWarnings("unchecked")
+    private static final List<Beat>[] wheel = new List[WHEEL_SLOTS];
+    static {
+        for (int i = 0; i < WHEEL_SLOTS; i++) wheel[i] = new ArrayList<>();
+    }
+
+    // code -> "FAULT" dei soli distributori guasti (immutabile, ricostruita a ogni transizione)
+    private static volatile Map<String, String> faults = Map.of();
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static volatile ScheduledExecutorService scheduler;
+    private static volatile StatusLookup statusLookup = DistributorCodeCache::findStatusByCode;
+    private static final long startMillis = System.currentTimeMillis();
+    private static long currentTick; // solo thread della ruota
+
+    private static final AtomicLong received = new AtomicLong();
+    private static final AtomicLong timeouts = new AtomicLong();
+    private static final AtomicLong recoveries = new AtomicLong();
+    private static final AtomicLong rescheduled = new AtomicLong();
+    private static volatile long lastTickWorkMicros = -1;
+
+    private HeartbeatTracker() {}
+
+    public static void start() {
+        if (TIMEOUT_MS <= 0) return; // disattivato: vale solo il FAULT deciso dal monitor
+        if (!started.compareAndSet(false, true)) return;
+        currentTick = tickOf(System.currentTimeMillis());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(HeartbeatTracker::advance, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void stop() {
+        ScheduledExecutorService s = scheduler;
+        if (s != null) s.shutdownNow();
+        started.set(false);
+    }
+
+    /**
+     * Riparte da zero senza thread della ruota: il chiamante (test) la fa girare con advance(now).
+     */
+    static void startManual(long nowMillis, StatusLookup lookup) {
+        stop();
+        beats.clear();
+        incoming.clear();
+        for (List<Beat> slot : wheel) slot.clear();
+        faults = Map.of();
+        statusLookup = lookup;
+        currentTick = tickOf(nowMillis);
+        started.set(true);
+    }
+
+    /**
+     * Registra un heartbeat (codice già autenticato/validato dal chiamante).
+     */
+    public static void beat(String code) {
+        beat(code, System.currentTimeMillis());
+    }
+
+    static void beat(String code, long nowMillis) {
+        if (code == null || code.isBlank() || !started.get()) return;
+        received.incrementAndGet();
+
+        Beat b = beats.computeIfAbsent(code.trim(), Beat::new);
+        b.lastBeatMillis = nowMillis;
+        // se non è già nella ruota (nuovo, o scaduto) ce lo mette il thread della ruota al prossimo tick
+        if (b.scheduled.compareAndSet(false, true)) incoming.add(b);
+    }
+
+    public static boolean isFault(String code) {
+        return code != null && faults.containsKey(code);
+    }
+
+    /**
+     * Stati runtime del monitor con sopra i FAULT rilevati localmente.
+     * Se non ci sono guasti locali restituisce la stessa istanza ricevuta.
+     */
+    public static Map<String, String> overlay(Map<String, String> monitorStatuses) {
+        Map<String, String> f = faults;
+        if (f.isEmpty()) return monitorStatuses;
+        Map<String, String> out = new HashMap<>(monitorStatuses);
+        out.putAll(f);
+        return out;
+    }
+
+    // ====== thread della ruota ======
+
+    private static void advance() {
+        advance(System.currentTimeMillis());
+    }
+
+    static void advance(long now) {
+        long t0 = System.nanoTime();
+        boolean changed = false;
+        try {
+            long target = tickOf(now);
+
+            // nuovi arrivi e distributori tornati a battere dopo un timeout
+            Beat b;
+            while ((b = incoming.poll()) != null) {
+                if (b.fault) changed |= recover(b);
+                schedule(b);
+            }
+
+            // si recuperano anche i tick saltati (GC, sospensione)
+            while (currentTick < target) {
+                currentTick++;
+                changed |= expireSlot(now);
+            }
+
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            if (changed) {
+                rebuildFaults();
+                DistributorsStateXmlCache.invalidate();
+            }
+            lastTickWorkMicros = (System.nanoTime() - t0) / 1_000;
+        }
+    }
+
+    private static boolean expireSlot(long now) {
+        List<Beat> slot = wheel[(int) (currentTick & (WHEEL_SLOTS - 1))];
+        if (slot.isEmpty()) return false;
+
+        List<Beat> due = new ArrayList<>();
+        slot.removeIf(x -> {
+            if (x.deadlineTick > currentTick) return false; // giro successivo della ruota
+            due.add(x);
+            return true;
+        });
+
+        boolean changed = false;
+        for (Beat b : due) {
+            if (now - b.lastBeatMillis < TIMEOUT_MS) {
+                // rinnovato nel frattempo: si sposta alla nuova scadenza
+                if (b.fault) changed |= recover(b);
+                schedule(b);
+                rescheduled.incrementAndGet();
+                continue;
+            }
+
+            // fuori dalla ruota PRIMA di rileggere lastBeatMillis: un heartbeat concorrente lo rimette in incoming
+            b.scheduled.set(false);
+            if (now - b.lastBeatMillis < TIMEOUT_MS) {
+                if (b.scheduled.compareAndSet(false, true)) schedule(b);
+                continue;
+            }
+            changed |= expire(b);
+        }
+        return changed;
+    }
+
+    private static void schedule(Beat b) {
+        scheduleAt(b, tickOf(b.lastBeatMillis + TIMEOUT_MS) + 1);
+    }
+
+    private static void scheduleAt(Beat b, long deadlineTick) {
+        if (deadlineTick <= currentTick) deadlineTick = currentTick + 1;
+        b.deadlineTick = deadlineTick;
+        wheel[(int) (deadlineTick & (WHEEL_SLOTS - 1))].add(b);
+    }
+
+    private static boolean expire(Beat b) {
+        if (b.fault) return false;
+
+        // senza heartbeat è normale se il distributore non è ACTIVE (manutenzione, eliminato): niente FAULT
+        String dbStatus;
+        try {
+            dbStatus = statusLookup.find(b.code);
+        } catch (DaoException e) {
+            // DB non disponibile: si rimette in ruota e si riprova alla prossima scadenza
+            if (b.scheduled.compareAndSet(false, true)) scheduleAt(b, currentTick + Math.max(1, 10_000 / TICK_MS));
+            return false;
+        }
+        if (!"ACTIVE".equalsIgnoreCase(dbStatus)) {
+            if (dbStatus == null) beats.remove(b.code, b);
+            return false;
+        }
+
+        b.fault = true;
+        timeouts.incrementAndGet();
+        return true;
+    }
+
+    private static boolean recover(Beat b) {
+        b.fault = false;
+        recoveries.incrementAndGet();
+        return true;
+    }
+
+    private static void rebuildFaults() {
+        Map<String, String> f = new HashMap<>();
+        for (Beat b : beats.values()) {
+            if (b.fault) f.put(b.code, "FAULT");
+        }
+        faults = Map.copyOf(f);
+    }
+
+    private static long tickOf(long millis) {
+        return (millis - startMillis) / TICK_MS;
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        s.running = started.get();
+        s.tracked = beats.size();
+        s.faults = faults.size();
+        s.received = received.get();
+        s.timeouts = timeouts.get();
+        s.recoveries = recoveries.get();
+        s.rescheduled = rescheduled.get();
+        s.lastTickWorkMicros = lastTickWorkMicros;
+        s.timeoutMs = TIMEOUT_MS;
+        s.tickMs = TICK_MS;
+        s.wheelSlots = WHEEL_SLOTS;
+        return s;
+    }
+
+    public static class Stats {
+        public boolean running;
+        public int tracked;
+        public int faults;
+        public long received;
+        public long timeouts;
+        public long recoveries;
+        public long rescheduled;
+        public long lastTickWorkMicros;
+        public long timeoutMs;
+        public long tickMs;
+        public int wheelSlots;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
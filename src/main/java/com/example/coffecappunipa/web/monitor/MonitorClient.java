@@ -1,5 +1,8 @@
 package com.example.coffecappunipa.web.monitor;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
@@ -7,45 +10,298 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Client HTTP verso CoffeeMonitor.
+ * Tutto il traffico passa da call(): circuit breaker (fallisce subito se il monitor è giù) +
+ * bulkhead (pool dedicato e limitato, con coda corta: se è pieno si rinuncia subito invece di
+ * accodare thread di Tomcat dietro a un monitor lento).
+ * Le servlet async usano callAsync(): nessun thread in attesa, solo un tetto alle chiamate in volo.
+ */
 public class MonitorClient {
 
     private static final String BASE =
             env("MONITOR_BASE_URL", "http://localhost:8081/CoffeeMonitor_war_exploded/api/monitor");
 
+    private static final long CALL_TIMEOUT_MS = envLong("MONITOR_CALL_TIMEOUT_MS", 5_000);
+
     private static final HttpClient client = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(2))
             .build();
 
+    private static final CircuitBreaker breaker = new CircuitBreaker("coffee-monitor",
+            (int) envLong("MONITOR_CB_FAILURE_THRESHOLD", 5),
+            envLong("MONITOR_CB_OPEN_MS", 10_000),
+            (int) envLong("MONITOR_CB_HALF_OPEN_PROBES", 1));
+
+    private static final ThreadPoolExecutor bulkhead = createBulkhead(
+            (int) envLong("MONITOR_BULKHEAD_THREADS", 8),
+            (int) envLong("MONITOR_BULKHEAD_QUEUE", 16));
+
+    // chiamate async (sendAsync): nessun thread occupato, ma un tetto a quelle in volo
+    private static final int ASYNC_MAX_IN_FLIGHT = (int) Math.max(1, envLong("MONITOR_ASYNC_MAX_IN_FLIGHT", 32));
+    private static final Semaphore asyncPermits = new Semaphore(ASYNC_MAX_IN_FLIGHT);
+
+    private static final AtomicLong bulkheadRejected = new AtomicLong();
+    private static final AtomicLong timeouts = new AtomicLong();
+
     private static String env(String k, String def) {
         String v = System.getenv(k);
         return (v == null || v.isBlank()) ? def : v;
     }
 
-    public static void heartbeat(String code) {
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static ThreadPoolExecutor createBulkhead(int threads, int queue) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)),
+                r -> {
+                    Thread t = new Thread(r, "monitor-call-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
+    }
+
+    /**
+     * Eccezione "veloce": la chiamata non è nemmeno partita (circuito aperto o bulkhead pieno).
+     */
+    public static class MonitorUnavailableException extends IOException {
+        public MonitorUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * false se il circuito è aperto: chi può rimandare (outbox, refresh in background) salta il giro.
+     */
+    public static boolean isAvailable() {
+        return breaker.isCallPermitted();
+    }
+
+    /**
+     * Legge la risposta sul thread del bulkhead (es. body in streaming), prima che la chiamata sia considerata finita.
+     */
+    @FunctionalInterface
+    private interface ResponseReader<T, R> {
+        R read(HttpResponse<T> res) throws IOException;
+    }
+
+    private static final class Outcome<R> {
+        final int status;
+        final R value;
+
+        Outcome(int status, R value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Esegue la richiesta nel bulkhead, con scadenza CALL_TIMEOUT_MS.
+     * Contano come fallimento per il breaker solo errori di rete, timeout e risposte 5xx.
+     */
+    private static <T> HttpResponse<T> call(HttpRequest req, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return call(req, handler, res -> res);
+    }
+
+    /**
+     * Come call(), ma anche reader gira nel bulkhead: lettura del body dentro CALL_TIMEOUT_MS e prima che
+     * il breaker conti il successo. Un errore di lettura conta come fallimento.
+     */
+    private static <T, R> R call(HttpRequest req, HttpResponse.BodyHandler<T> handler, ResponseReader<T, R> reader)
+            throws IOException, InterruptedException {
+
+        if (!breaker.tryAcquire()) {
+            throw new MonitorUnavailableException("CoffeeMonitor non disponibile (circuit breaker aperto)");
+        }
+
+        Future<Outcome<R>> f;
+        try {
+            Callable<Outcome<R>> task = () -> {
+                HttpResponse<T> res = client.send(req, handler);
+                return new Outcome<>(res.statusCode(), reader.read(res));
+            };
+            f = bulkhead.submit(task);
+        } catch (RejectedExecutionException e) {
+            breaker.onIgnored();
+            bulkheadRejected.incrementAndGet();
+            throw new MonitorUnavailableException("CoffeeMonitor: troppe chiamate in corso (bulkhead pieno)");
+        }
+
+        try {
+            Outcome<R> res = f.get(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (res.status >= 500) breaker.onFailure();
+            else breaker.onSuccess();
+            return res.value;
+
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            timeouts.incrementAndGet();
+            breaker.onFailure();
+            throw new IOException("CoffeeMonitor: timeout dopo " + CALL_TIMEOUT_MS + "ms");
+
+        } catch (ExecutionException e) {
+            breaker.onFailure();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("CoffeeMonitor: " + cause, cause);
+
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            breaker.onIgnored();
+            throw e;
+        }
+    }
+
+    /**
+     * Come call() ma senza bloccare il chiamante: HttpClient.sendAsync con scadenza CALL_TIMEOUT_MS.
+     * Il future fallisce subito (MonitorUnavailableException) se il circuito è aperto o ci sono troppe chiamate in volo.
+     */
+    private static <T> CompletableFuture<HttpResponse<T>> callAsync(HttpRequest req, HttpResponse.BodyHandler<T> handler) {
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new MonitorUnavailableException("CoffeeMonitor non disponibile (circuit breaker aperto)"));
+        }
+        if (!asyncPermits.tryAcquire()) {
+            breaker.onIgnored();
+            bulkheadRejected.incrementAndGet();
+            return CompletableFuture.failedFuture(
+                    new MonitorUnavailableException("CoffeeMonitor: troppe chiamate in corso"));
+        }
+
+        CompletableFuture<HttpResponse<T>> exchange;
+        try {
+            exchange = client.sendAsync(req, handler);
+        } catch (RuntimeException e) {
+            asyncPermits.release();
+            breaker.onIgnored();
+            return CompletableFuture.failedFuture(e);
+        }
+        // il permesso torna libero quando finisce lo scambio vero (risposta, errore o cancellazione), non allo scadere
+        exchange.whenComplete((res, err) -> asyncPermits.release());
+
+        // scadenza su una copia: orTimeout() sul future di sendAsync lo completerebbe senza fermare lo scambio,
+        // così invece allo scadere si cancella lo scambio (HttpClient chiude la richiesta in corso)
+        return exchange.copy()
+                .orTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((res, err) -> {
+                    if (err == null) {
+                        if (res.statusCode() >= 500) breaker.onFailure();
+                        else breaker.onSuccess();
+                        return;
+                    }
+                    Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+                    if (cause instanceof TimeoutException) {
+                        exchange.cancel(true);
+                        timeouts.incrementAndGet();
+                    }
+                    breaker.onFailure();
+                });
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        s.breaker = breaker.getStats();
+        s.bulkheadActive = bulkhead.getActiveCount();
+        s.bulkheadQueued = bulkhead.getQueue().size();
+        s.bulkheadMaxThreads = bulkhead.getMaximumPoolSize();
+        s.bulkheadRejected = bulkheadRejected.get();
+        s.timeouts = timeouts.get();
+        s.asyncInFlight = ASYNC_MAX_IN_FLIGHT - asyncPermits.availablePermits();
+        s.asyncMaxInFlight = ASYNC_MAX_IN_FLIGHT;
+        s.callTimeoutMs = CALL_TIMEOUT_MS;
+        return s;
+    }
+
+    public static class Stats {
+        public CircuitBreaker.Stats breaker;
+        public int bulkheadActive;
+        public int bulkheadQueued;
+        public int bulkheadMaxThreads;
+        public long bulkheadRejected;
+        public long timeouts;
+        public int asyncInFlight;
+        public int asyncMaxInFlight;
+        public long callTimeoutMs;
+    }
+
+    // Le chiamate seguenti falliscono con eccezione: le usano MonitorOutboxDispatcher e HeartbeatAggregator per decidere i retry.
+
+    public static void sendHeartbeat(String code) throws IOException, InterruptedException {
         postForm("/heartbeat", "code", code);
     }
 
-    public static void upsertDistributor(String code, String locationName, String statusDb) {
+    /**
+     * Heartbeat di più distributori in una sola POST (code=A&code=B&...), usata da HeartbeatAggregator.
+     * @return false se il monitor non espone l'endpoint batch (404/405): il chiamante ripiega su sendHeartbeat()
+     */
+    public static boolean sendHeartbeatBatch(List<String> codes) throws IOException, InterruptedException {
+        String[] kv = new String[codes.size() * 2];
+        for (int i = 0; i < codes.size(); i++) {
+            kv[2 * i] = "code";
+            kv[2 * i + 1] = codes.get(i);
+        }
+        int status = postFormStatus("/heartbeat/batch", kv);
+        if (status == 404 || status == 405) return false;
+        if (status < 200 || status >= 300) {
+            throw new IOException("CoffeeMonitor /heartbeat/batch -> HTTP " + status);
+        }
+        return true;
+    }
+
+    public static void upsertDistributor(String code, String locationName, String statusDb)
+            throws IOException, InterruptedException {
         postForm("/distributors/create",
                 "code", code,
                 "location_name", locationName == null ? "" : locationName,
                 "status", statusDb);
     }
 
-    public static void deleteDistributor(String code) {
+    public static void deleteDistributor(String code) throws IOException, InterruptedException {
         postForm("/distributors/delete", "code", code);
     }
 
-    public static void updateStatus(String code, String statusDb) {
+    public static void updateStatus(String code, String statusDb) throws IOException, InterruptedException {
         postForm("/distributors/status", "code", code, "status", statusDb);
     }
 
     public static Map<String, String> fetchRuntimeStatuses() {
+        Map<String, String> m = tryFetchRuntimeStatuses();
+        return (m == null) ? Map.of() : m;
+    }
+
+    /**
+     * Come fetchRuntimeStatuses() ma distingue il fallimento (null) dalla mappa vuota.
+     */
+    public static Map<String, String> tryFetchRuntimeStatuses() {
         try {
             HttpRequest req = HttpRequest.newBuilder()
                     .uri(URI.create(BASE + "/map"))
@@ -54,37 +310,63 @@ public class MonitorClient {
                     .GET()
                     .build();
 
-            HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-            if (res.statusCode() < 200 || res.statusCode() >= 300) return Map.of();
-
-            String body = res.body();
-            if (body == null || body.isBlank()) return Map.of();
-
-            return parseMapJson(body);
+            // body letto come stream e interpretato al volo (niente copia del JSON in memoria), sul thread del bulkhead:
+            // CALL_TIMEOUT_MS e circuit breaker coprono anche la lettura
+            return call(req, HttpResponse.BodyHandlers.ofInputStream(), res -> {
+                try (InputStream body = res.body()) {
+                    if (res.statusCode() < 200 || res.statusCode() >= 300) return null;
+                    return MonitorMapJsonReader.read(body);
+                }
+            });
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception ignored) {
-            return Map.of();
+            return null;
         }
     }
 
-    private static Map<String, String> parseMapJson(String json) {
-        Map<String, String> out = new HashMap<>();
-        Pattern p = Pattern.compile("\"code\"\\s*:\\s*\"([^\"]*)\"[\\s\\S]*?\"status\"\\s*:\\s*\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher m = p.matcher(json);
+    /**
+     * Come tryFetchRuntimeStatuses() ma asincrona (servlet async): completa con null se il monitor non risponde,
+     * mai con eccezione.
+     */
+    public static CompletableFuture<Map<String, String>> fetchRuntimeStatusesAsync() {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(BASE + "/map"))
+                .timeout(Duration.ofSeconds(4))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
 
-        while (m.find()) {
-            String code = unescapeJson(m.group(1));
-            String status = unescapeJson(m.group(2));
-            if (code != null && !code.isBlank() && status != null && !status.isBlank()) {
-                out.put(code.trim(), status.trim().toUpperCase());
+        // body intero in memoria: uno stream andrebbe letto bloccando un thread (di HttpClient o del bulkhead),
+        // proprio quello che il percorso async evita; la scadenza copre comunque la ricezione di tutto il body
+        return callAsync(req, HttpResponse.BodyHandlers.ofByteArray()).handle((res, err) -> {
+            if (err != null || res.statusCode() < 200 || res.statusCode() >= 300) return null;
+            try {
+                return MonitorMapJsonReader.read(new ByteArrayInputStream(res.body()));
+            } catch (Exception e) {
+                return null;
             }
-        }
-        return out;
+        });
     }
 
-    private static String unescapeJson(String s) {
-        if (s == null) return null;
-        return s.replace("\\\"", "\"").replace("\\\\", "\\");
+    /**
+     * Body JSON grezzo di GET /map (per il proxy verso il browser): completa con null se il monitor non risponde,
+     * mai con eccezione.
+     */
+    public static CompletableFuture<String> fetchMapJsonAsync() {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(BASE + "/map"))
+                .timeout(Duration.ofSeconds(3))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+
+        return callAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).handle((res, err) -> {
+            if (err != null || res.statusCode() < 200 || res.statusCode() >= 300) return null;
+            return res.body();
+        });
     }
 
     public static void syncJson(String json) {
@@ -96,25 +378,32 @@ public class MonitorClient {
                     .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
                     .build();
 
-            client.send(req, HttpResponse.BodyHandlers.discarding());
+            call(req, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception ignored) {
         }
     }
 
-    private static void postForm(String path, String... kv) {
-        try {
-            String body = formEncode(kv);
+    private static void postForm(String path, String... kv) throws IOException, InterruptedException {
+        int status = postFormStatus(path, kv);
+        if (status < 200 || status >= 300) {
+            throw new IOException("CoffeeMonitor " + path + " -> HTTP " + status);
+        }
+    }
 
-            HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create(BASE + path))
-                    .timeout(Duration.ofSeconds(4))
-                    .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
-                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
-                    .build();
+    private static int postFormStatus(String path, String... kv) throws IOException, InterruptedException {
+        String body = formEncode(kv);
 
-            client.send(req, HttpResponse.BodyHandlers.discarding());
-        } catch (Exception ignored) {
-        }
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(BASE + path))
+                .timeout(Duration.ofSeconds(4))
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+
+        HttpResponse<Void> res = call(req, HttpResponse.BodyHandlers.discarding());
+        return res.statusCode();
     }
 
     private static String formEncode(String... kv) {
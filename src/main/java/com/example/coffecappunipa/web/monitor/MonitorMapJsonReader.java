@@ -0,0 +1,193 @@
+package com.example.coffecappunipa.web.monitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lettore JSON in streaming per la risposta di GET /map del monitor.
+ * Legge il body a blocchi (niente String con tutto il JSON), percorre la struttura una sola volta e
+ * per ogni oggetto che contiene sia "code" che "status" (come membri diretti, in qualunque ordine)
+ * emette la coppia code -> STATUS. Gli altri valori vengono saltati senza creare stringhe.
+ * Un body vuoto produce una mappa vuota; un JSON malformato produce IOException.
+ */
+final class MonitorMapJsonReader {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int len;
+
+    // riusato per i nomi dei campi e per le stringhe da tenere
+    private final StringBuilder sb = new StringBuilder(64);
+
+    private MonitorMapJsonReader(Reader in) {
+        this.in = in;
+    }
+
+    static Map<String, String> read(InputStream body) throws IOException {
+        MonitorMapJsonReader r = new MonitorMapJsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        Map<String, String> out = new HashMap<>();
+
+        int c = r.nextNonWs();
+        if (c == -1) return out;
+
+        r.value(c, out, 0);
+
+        if (r.nextNonWs() != -1) throw new IOException("JSON /map: contenuto dopo la fine del documento");
+        return out;
+    }
+
+    private void value(int c, Map<String, String> out, int depth) throws IOException {
+        if (depth > MAX_DEPTH) throw new IOException("JSON /map: annidamento eccessivo");
+
+        switch (c) {
+            case '{' -> object(out, depth + 1);
+            case '[' -> array(out, depth + 1);
+            case '"' -> skipString();
+            case -1 -> throw new IOException("JSON /map: fine inattesa");
+            default -> skipLiteral(c);
+        }
+    }
+
+    private void object(Map<String, String> out, int depth) throws IOException {
+        String code = null;
+        String status = null;
+
+        int c = nextNonWs();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') throw new IOException("JSON /map: atteso nome di campo");
+                readString();
+                boolean isCode = "code".contentEquals(sb);
+                boolean isStatus = !isCode && "status".contentEquals(sb);
+
+                if (nextNonWs() != ':') throw new IOException("JSON /map: atteso ':'");
+
+                c = nextNonWs();
+                if ((isCode || isStatus) && c == '"') {
+                    readString();
+                    if (isCode) code = sb.toString();
+                    else status = sb.toString();
+                } else {
+                    value(c, out, depth);
+                }
+
+                c = nextNonWs();
+                if (c == '}') break;
+                if (c != ',') throw new IOException("JSON /map: atteso ',' o '}'");
+                c = nextNonWs();
+            }
+        }
+
+        // code e status appartengono allo stesso oggetto: niente accoppiamenti tra oggetti diversi
+        if (code != null && status != null) {
+            String k = code.trim();
+            String v = status.trim();
+            if (!k.isEmpty() && !v.isEmpty()) out.put(k, v.toUpperCase());
+        }
+    }
+
+    private void array(Map<String, String> out, int depth) throws IOException {
+        int c = nextNonWs();
+        if (c == ']') return;
+
+        while (true) {
+            value(c, out, depth);
+            c = nextNonWs();
+            if (c == ']') return;
+            if (c != ',') throw new IOException("JSON /map: atteso ',' o ']'");
+            c = nextNonWs();
+        }
+    }
+
+    // Legge una stringa (dopo il '"' di apertura) dentro sb, gestendo gli escape
+    private void readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            int c = next();
+            if (c == -1) throw new IOException("JSON /map: stringa non terminata");
+            if (c == '"') return;
+            if (c != '\\') {
+                sb.append((char) c);
+                continue;
+            }
+
+            int e = next();
+            switch (e) {
+                case '"', '\\', '/' -> sb.append((char) e);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> sb.append(readHex4());
+                default -> throw new IOException("JSON /map: escape non valido");
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = next();
+            if (c == -1) throw new IOException("JSON /map: stringa non terminata");
+            if (c == '"') return;
+            if (c == '\\' && next() == -1) throw new IOException("JSON /map: stringa non terminata");
+        }
+    }
+
+    // numeri, true, false, null: si consumano fino al prossimo separatore
+    private void skipLiteral(int first) throws IOException {
+        if (!isLiteralChar(first)) throw new IOException("JSON /map: carattere inatteso '" + (char) first + "'");
+        while (true) {
+            int c = peek();
+            if (c == -1 || !isLiteralChar(c)) return;
+            pos++;
+        }
+    }
+
+    private static boolean isLiteralChar(int c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+
+    private char readHex4() throws IOException {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int d = Character.digit(next(), 16);
+            if (d < 0) throw new IOException("JSON /map: escape \\u non valido");
+            v = (v << 4) | d;
+        }
+        return (char) v;
+    }
+
+    private int nextNonWs() throws IOException {
+        while (true) {
+            int c = next();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+        }
+    }
+
+    private int next() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        len = n;
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.coffecappunipa.web.monitor;
+
+import com.example.coffecappunipa.persistence.dao.MonitorOutboxDAO;
+import com.example.coffecappunipa.persistence.util.DaoException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Svuota in background la tabella monitor_outbox verso CoffeeMonitor.
+ * - un solo thread: i messaggi escono in ordine di id, e per ogni distributore non si scavalca mai
+ *   un messaggio in attesa di retry (il codice resta "bloccato" fino al prossimo giro)
+ * - batch di BATCH_SIZE righe per giro, cancellazione dei messaggi consegnati con un'unica batch JDBC
+ * - retry con backoff esponenziale (1s, 2s, 4s, ... fino a MAX_BACKOFF_MS); dopo MAX_ATTEMPTS il messaggio
+ *   resta in tabella con dead = 1 per l'analisi manuale
+ * Consegna "almeno una volta": le chiamate al monitor sono idempotenti (create/status/delete/heartbeat).
+ * Pensato per un singolo nodo applicativo: con più istanze serve un lock sulle righe (SELECT ... FOR UPDATE).
+ */
+public final class MonitorOutboxDispatcher {
+
+    private static final long POLL_MS = envLong("MONITOR_OUTBOX_POLL_MS", 1_000);
+    private static final int BATCH_SIZE = (int) envLong("MONITOR_OUTBOX_BATCH_SIZE", 100);
+    private static final int MAX_ATTEMPTS = (int) envLong("MONITOR_OUTBOX_MAX_ATTEMPTS", 20);
+    private static final long MAX_BACKOFF_MS = envLong("MONITOR_OUTBOX_MAX_BACKOFF_MS", 300_000);
+
+    private static final MonitorOutboxDAO outboxDAO = new MonitorOutboxDAO();
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private static final AtomicLong sentCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong deadCount = new AtomicLong();
+    private static final AtomicLong cycleCount = new AtomicLong();
+    private static volatile long lastCycleMs = -1;
+    private static volatile String lastError;
+    private static volatile boolean failing;
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private MonitorOutboxDispatcher() {}
+
+    public static void start() {
+        if (!started.compareAndSet(false, true)) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "monitor-outbox");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(MonitorOutboxDispatcher::drain, POLL_MS, POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void stop() {
+        ScheduledExecutorService s = scheduler;
+        if (s != null) s.shutdownNow();
+        started.set(false);
+    }
+
+    /**
+     * Da chiamare dopo il commit di una transazione che ha scritto nell'outbox: evita di aspettare il prossimo giro.
+     */
+    public static void wakeUp() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null || s.isShutdown() || running.get()) return;
+        try {
+            s.execute(MonitorOutboxDispatcher::drain);
+        } catch (RuntimeException ignored) {
+            // scheduler in chiusura
+        }
+    }
+
+    private static void drain() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            // se il batch era pieno e qualcosa è partito, c'è probabilmente altro da spedire
+            while (cycle() && !Thread.currentThread().isInterrupted()) {
+                // continua
+            }
+        } catch (DaoException e) {
+            reportFailure("DB: " + e.getMessage());
+        } catch (RuntimeException e) {
+            reportFailure(e.toString());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Un giro sul batch successivo. Ritorna true se conviene ripartire subito.
+     */
+    private static boolean cycle() {
+        // circuito aperto: inutile consumare tentativi, si riprova al prossimo giro
+        if (!MonitorClient.isAvailable()) return false;
+
+        long t0 = System.nanoTime();
+        List<MonitorOutboxDAO.OutboxRow> rows = outboxDAO.findPending(BATCH_SIZE);
+
+        Set<String> blockedCodes = new HashSet<>();
+        List<Long> sentIds = new ArrayList<>();
+        boolean interrupted = false;
+
+        for (MonitorOutboxDAO.OutboxRow row : rows) {
+            if (blockedCodes.contains(row.code)) continue;
+
+            if (!row.due) {
+                // in backoff: i messaggi successivi dello stesso distributore aspettano
+                blockedCodes.add(row.code);
+                continue;
+            }
+
+            try {
+                deliver(row);
+                sentIds.add(row.id);
+                // prima di deleteSent: il codice non resta mai senza protezione per la riconciliazione
+                if (!MonitorOutboxDAO.OP_HEARTBEAT.equals(row.op)) MonitorReconciler.markDelivered(row.code);
+
+            } catch (IOException e) {
+                int attempts = row.attempts + 1;
+                boolean dead = attempts >= MAX_ATTEMPTS;
+
+                outboxDAO.markRetry(row.id, backoffMs(attempts), e.getMessage(), dead);
+                failedCount.incrementAndGet();
+                String error = row.op + " " + row.code + ": " + e.getMessage();
+                reportFailure(error);
+
+                if (dead) {
+                    deadCount.incrementAndGet();
+                    System.err.println("[monitor-outbox] messaggio " + row.id + " scartato dopo " + attempts + " tentativi: " + error);
+                } else {
+                    blockedCodes.add(row.code);
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                break;
+            }
+        }
+
+        outboxDAO.deleteSent(sentIds);
+        sentCount.addAndGet(sentIds.size());
+
+        cycleCount.incrementAndGet();
+        lastCycleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+        if (failing && (!sentIds.isEmpty() || rows.isEmpty())) {
+            failing = false;
+            System.err.println("[monitor-outbox] consegna verso CoffeeMonitor ripresa");
+        }
+
+        return !interrupted && rows.size() == BATCH_SIZE && !sentIds.isEmpty();
+    }
+
+    private static void deliver(MonitorOutboxDAO.OutboxRow row) throws IOException, InterruptedException {
+        switch (row.op) {
+            case MonitorOutboxDAO.OP_UPSERT -> MonitorClient.upsertDistributor(row.code, row.locationName, row.status);
+            case MonitorOutboxDAO.OP_STATUS -> MonitorClient.updateStatus(row.code, row.status);
+            case MonitorOutboxDAO.OP_DELETE -> MonitorClient.deleteDistributor(row.code);
+            case MonitorOutboxDAO.OP_HEARTBEAT -> MonitorClient.sendHeartbeat(row.code);
+            default -> throw new IOException("Operazione outbox sconosciuta: " + row.op);
+        }
+    }
+
+    private static long backoffMs(int attempts) {
+        // 1s, 2s, 4s, ... (shift limitato per non andare in overflow)
+        long base = 1_000L << Math.min(attempts - 1, 20);
+        return Math.min(base, MAX_BACKOFF_MS);
+    }
+
+    // Log solo al cambio di stato, per non riempire il log quando DB o monitor restano giù
+    private static void reportFailure(String error) {
+        lastError = error;
+        if (!failing) {
+            failing = true;
+            System.err.println("[monitor-outbox] consegna sospesa: " + error);
+        }
+    }
+
+    public static Stats getStats() {
+        Stats st = new Stats();
+        st.running = started.get();
+        st.sent = sentCount.get();
+        st.failed = failedCount.get();
+        st.dead = deadCount.get();
+        st.cycles = cycleCount.get();
+        st.lastCycleMs = lastCycleMs;
+        st.failing = failing;
+        st.lastError = lastError;
+        st.pollMs = POLL_MS;
+        st.batchSize = BATCH_SIZE;
+        st.maxAttempts = MAX_ATTEMPTS;
+        return st;
+    }
+
+    public static class Stats {
+        public boolean running;
+        public long sent;
+        public long failed;       // tentativi falliti (ognuno rimette il messaggio in backoff)
+        public long dead;         // messaggi abbandonati da questo processo
+        public long cycles;
+        public long lastCycleMs;  // -1 = nessun giro completato
+        public boolean failing;
+        public String lastError;
+        public long pollMs;
+        public int batchSize;
+        public int maxAttempts;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
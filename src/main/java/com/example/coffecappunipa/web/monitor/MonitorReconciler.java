@@ -0,0 +1,231 @@
+package com.example.coffecappunipa.web.monitor;
+
+import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+import com.example.coffecappunipa.persistence.dao.MonitorOutboxDAO;
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.push.DistributorEvents;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Riconciliazione periodica DB principale <- stati del monitor (stesso motore di POST /api/monitor/sync).
+ * - giro programmato ogni RECONCILE_MS sulla fotografia in memoria (MonitorStatusSnapshot, nessuna chiamata HTTP):
+ *   se la fotografia è la stessa istanza del giro precedente non c'è nulla di nuovo e il giro si salta,
+ *   salvo un giro completo almeno ogni FULL_MS (modifiche fatte direttamente sul DB)
+ * - "sync now" (servlet) legge la mappa dal monitor in diretta e aspetta un eventuale giro in corso
+ * - un giro programmato non parte se il precedente (o una sync manuale) è ancora in corso
+ * - i distributori con messaggi ancora in outbox sono esclusi: lì è il monitor a essere indietro rispetto al DB
+ * - esclusi anche quelli con un messaggio consegnato dopo l'inizio della lettura della mappa:
+ *   la fotografia (fino a MAX_STALE_MS di età) non lo contiene e riporterebbe indietro il cambio
+ * Dopo ogni giro con cambi: invalidazione di state.xml ed eventi STATUS solo per i codici cambiati.
+ */
+public final class MonitorReconciler {
+
+    private static final long RECONCILE_MS = envLong("MONITOR_RECONCILE_MS", 60_000);
+    private static final long FULL_MS = envLong("MONITOR_RECONCILE_FULL_MS", 600_000);
+
+    private static final DistributorDAO distributorDAO = new DistributorDAO();
+    private static final MonitorOutboxDAO outboxDAO = new MonitorOutboxDAO();
+
+    // code -> quando l'outbox ha consegnato l'ultimo cambio al monitor; voci più vecchie di DELIVERED_KEEP_MS non servono più
+    private static final long DELIVERED_KEEP_MS = 600_000;
+    private static final ConcurrentHashMap<String, Long> deliveredAt = new ConcurrentHashMap<>();
+
+    private static final ReentrantLock runLock = new ReentrantLock();
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static volatile ScheduledExecutorService scheduler;
+
+    // ultima fotografia riconciliata (confronto per identità) e quando è stato fatto l'ultimo giro completo
+    private static Map<String, String> lastReconciled;
+    private static long lastFullAtMillis;
+
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong skippedBusy = new AtomicLong();
+    private static final AtomicLong skippedUnchanged = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong totalUpdated = new AtomicLong();
+    private static volatile long lastRunAtMillis = -1;
+    private static volatile long lastDurationMs = -1;
+    private static volatile DistributorDAO.SyncResult lastResult;
+    private static volatile int lastExcluded;
+    private static volatile String lastError;
+
+    private MonitorReconciler() {}
+
+    public static void start() {
+        if (RECONCILE_MS <= 0) return; // disattivato: resta solo la sync manuale
+        if (!started.compareAndSet(false, true)) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "monitor-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(MonitorReconciler::scheduledRun, RECONCILE_MS, RECONCILE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void stop() {
+        ScheduledExecutorService s = scheduler;
+        if (s != null) s.shutdownNow();
+        started.set(false);
+    }
+
+    /**
+     * Chiamato dal dispatcher dell'outbox dopo ogni consegna riuscita (heartbeat esclusi).
+     */
+    static void markDelivered(String code) {
+        if (code != null) deliveredAt.put(code, System.currentTimeMillis());
+    }
+
+    /**
+     * Sync manuale ("sync now"): la mappa arriva dal monitor in diretta (letta dal chiamante),
+     * poi stesso motore del giro programmato. Aspetta un eventuale giro in corso.
+     * @param requestedAtMillis quando il chiamante ha iniziato la richiesta al monitor
+     */
+    public static DistributorDAO.SyncResult runNow(Map<String, String> monitor, long requestedAtMillis) {
+        runLock.lock();
+        try {
+            DistributorDAO.SyncResult r = reconcile(monitor, requestedAtMillis);
+            lastFullAtMillis = System.currentTimeMillis();
+            return r;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private static void scheduledRun() {
+        if (!runLock.tryLock()) {
+            skippedBusy.incrementAndGet();
+            return;
+        }
+        try {
+            MonitorStatusSnapshot.Snapshot snap = MonitorStatusSnapshot.read();
+            // monitor giù o fotografia scaduta: niente da confrontare
+            if (snap == null || snap.statuses.isEmpty()) return;
+            Map<String, String> monitor = snap.statuses;
+
+            long now = System.currentTimeMillis();
+            if (monitor == lastReconciled && now - lastFullAtMillis < FULL_MS) {
+                skippedUnchanged.incrementAndGet();
+                return;
+            }
+
+            reconcile(monitor, snap.requestedAtMillis);
+            lastReconciled = monitor;
+            lastFullAtMillis = now;
+
+        } catch (DaoException e) {
+            // già contato in reconcile(); si riprova al prossimo giro
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            lastError = e.toString();
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    // da chiamare con runLock preso
+    private static DistributorDAO.SyncResult reconcile(Map<String, String> monitor, long requestedAtMillis) {
+        long t0 = System.nanoTime();
+        try {
+            Set<String> skip = new HashSet<>(outboxDAO.findPendingCodes());
+            long keepFrom = System.currentTimeMillis() - DELIVERED_KEEP_MS;
+            deliveredAt.values().removeIf(at -> at < keepFrom);
+            for (Map.Entry<String, Long> e : deliveredAt.entrySet()) {
+                if (e.getValue() >= requestedAtMillis) skip.add(e.getKey());
+            }
+
+            Map<String, String> toApply = monitor;
+            if (!skip.isEmpty()) {
+                toApply = new HashMap<>(monitor);
+                toApply.keySet().removeAll(skip);
+            }
+
+            DistributorDAO.SyncResult r = distributorDAO.applyStatusesFromMonitor(toApply);
+
+            if (!r.changedCodes.isEmpty()) {
+                DistributorsStateXmlCache.invalidate();
+                for (String code : r.changedCodes) {
+                    DistributorEvents.publish(code, DistributorEvents.STATUS);
+                }
+            }
+
+            runs.incrementAndGet();
+            totalUpdated.addAndGet(r.updated);
+            lastResult = r;
+            lastExcluded = monitor.size() - toApply.size();
+            lastError = null;
+            return r;
+
+        } catch (DaoException e) {
+            failures.incrementAndGet();
+            lastError = "DB: " + e.getMessage();
+            throw e;
+
+        } finally {
+            lastRunAtMillis = System.currentTimeMillis();
+            lastDurationMs = (System.nanoTime() - t0) / 1_000_000;
+        }
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        DistributorDAO.SyncResult r = lastResult;
+        s.running = started.get();
+        s.intervalMs = RECONCILE_MS;
+        s.fullMs = FULL_MS;
+        s.runs = runs.get();
+        s.skippedBusy = skippedBusy.get();
+        s.skippedUnchanged = skippedUnchanged.get();
+        s.failures = failures.get();
+        s.totalUpdated = totalUpdated.get();
+        s.lastRunAgeMs = (lastRunAtMillis < 0) ? -1 : System.currentTimeMillis() - lastRunAtMillis;
+        s.lastDurationMs = lastDurationMs;
+        s.lastUpdated = (r == null) ? 0 : r.updated;
+        s.lastUnchanged = (r == null) ? 0 : r.unchanged;
+        s.lastMissing = (r == null) ? 0 : r.missing;
+        s.lastInvalid = (r == null) ? 0 : r.invalid;
+        s.lastExcluded = lastExcluded;
+        s.lastError = lastError;
+        return s;
+    }
+
+    public static class Stats {
+        public boolean running;
+        public long intervalMs;
+        public long fullMs;
+        public long runs;
+        public long skippedBusy;
+        public long skippedUnchanged;
+        public long failures;
+        public long totalUpdated;
+        public long lastRunAgeMs;
+        public long lastDurationMs;
+        public int lastUpdated;
+        public int lastUnchanged;
+        public int lastMissing;
+        public int lastInvalid;
+        public int lastExcluded; // esclusi perché con messaggi in outbox o consegnati dopo la lettura
+        public String lastError;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.coffecappunipa.web.monitor;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fotografia degli stati runtime del monitor (code -> ACTIVE/MAINTENANCE/FAULT), aggiornata in background.
+ * Le servlet leggono con get()/statusOf() in O(1), senza mai chiamare il monitor sul thread della richiesta.
+ * - refresh periodico ogni REFRESH_MS (+ jitter casuale, per non sincronizzare più istanze)
+ * - stale-while-revalidate: oltre STALE_MS si serve il dato vecchio e si chiede subito un refresh;
+ *   oltre MAX_STALE_MS il dato è considerato scaduto e si risponde "nessuna informazione" (mappa vuota),
+ *   come faceva fetchRuntimeStatuses() con il monitor giù.
+ */
+public final class MonitorStatusSnapshot {
+
+    private static final long REFRESH_MS = envLong("MONITOR_SNAPSHOT_REFRESH_MS", 5_000);
+    private static final long JITTER_MS = envLong("MONITOR_SNAPSHOT_JITTER_MS", 1_000);
+    private static final long STALE_MS = envLong("MONITOR_SNAPSHOT_STALE_MS", 15_000);
+    private static final long MAX_STALE_MS = envLong("MONITOR_SNAPSHOT_MAX_STALE_MS", 60_000);
+
+    static final class Snapshot {
+        final Map<String, String> statuses;
+        // inizio della richiesta al monitor: la mappa non riflette nulla di consegnato dopo questo istante
+        final long requestedAtMillis;
+        final long fetchedAtMillis;
+
+        Snapshot(Map<String, String> statuses, long requestedAtMillis, long fetchedAtMillis) {
+            this.statuses = statuses;
+            this.requestedAtMillis = requestedAtMillis;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+    }
+
+    private static volatile Snapshot current = new Snapshot(Map.of(), 0, 0);
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    // true dopo stop(): get() non riavvia più il thread da sola (solo uno start() esplicito)
+    private static boolean stopped; // sotto lock della classe
+    private static final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    private static final AtomicLong refreshCount = new AtomicLong();
+    private static final AtomicLong failureCount = new AtomicLong();
+    private static volatile long lastRefreshLatencyMs = -1;
+    private static volatile long lastAttemptAtMillis = 0;
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private MonitorStatusSnapshot() {}
+
+    public static synchronized void start() {
+        stopped = false;
+        if (!started.compareAndSet(false, true)) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "monitor-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(MonitorStatusSnapshot::refreshAndReschedule);
+    }
+
+    public static synchronized void stop() {
+        stopped = true;
+        ScheduledExecutorService s = scheduler;
+        if (s != null) s.shutdownNow();
+        started.set(false);
+    }
+
+    /**
+     * Mappa code -> stato runtime (immutabile). Vuota se il monitor non ha mai risposto o il dato è scaduto.
+     */
+    public static Map<String, String> get() {
+        Snapshot s = read();
+        return (s == null) ? Map.of() : s.statuses;
+    }
+
+    /**
+     * Come get(), ma con l'istante della richiesta al monitor (serve alla riconciliazione). Null se il dato è scaduto.
+     */
+    static Snapshot read() {
+        if (!started.get()) startLazily();
+
+        Snapshot s = current;
+        long age = System.currentTimeMillis() - s.fetchedAtMillis;
+
+        if (age > STALE_MS) {
+            triggerRefresh();
+        }
+        if (age > MAX_STALE_MS) {
+            return null;
+        }
+        return s;
+    }
+
+    public static String statusOf(String code) {
+        if (code == null) return null;
+        return get().get(code);
+    }
+
+    // primo get() prima dello start all'avvio dell'applicazione; dopo stop() non riparte
+    private static synchronized void startLazily() {
+        if (!stopped) start();
+    }
+
+    private static void refreshAndReschedule() {
+        try {
+            refresh();
+        } finally {
+            long delay = REFRESH_MS + (JITTER_MS > 0 ? ThreadLocalRandom.current().nextLong(JITTER_MS + 1) : 0);
+            ScheduledExecutorService s = scheduler;
+            if (s != null && !s.isShutdown()) {
+                s.schedule(MonitorStatusSnapshot::refreshAndReschedule, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static void triggerRefresh() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null || s.isShutdown() || refreshing.get()) return;
+        try {
+            s.execute(MonitorStatusSnapshot::refresh);
+        } catch (RuntimeException ignored) {
+            // scheduler in chiusura
+        }
+    }
+
+    private static void refresh() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        try {
+            long t0 = System.nanoTime();
+            long requestedAt = System.currentTimeMillis();
+            lastAttemptAtMillis = requestedAt;
+
+            Map<String, String> fresh = MonitorClient.tryFetchRuntimeStatuses();
+
+            lastRefreshLatencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+            if (fresh == null) {
+                // monitor giù: si tiene l'ultimo dato buono finché non scade (MAX_STALE_MS)
+                failureCount.incrementAndGet();
+                return;
+            }
+
+            // se non è cambiato nulla si tiene la stessa istanza: chi confronta per identità (cache di state.xml) non rigenera
+            Map<String, String> prev = current.statuses;
+            Map<String, String> statuses = fresh.equals(prev) ? prev : Map.copyOf(fresh);
+            current = new Snapshot(statuses, requestedAt, System.currentTimeMillis());
+            refreshCount.incrementAndGet();
+
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    public static Stats getStats() {
+        Snapshot s = current;
+        Stats st = new Stats();
+        st.size = s.statuses.size();
+        st.ageMs = (s.fetchedAtMillis == 0) ? -1 : System.currentTimeMillis() - s.fetchedAtMillis;
+        st.lastRefreshLatencyMs = lastRefreshLatencyMs;
+        st.lastAttemptAgeMs = (lastAttemptAtMillis == 0) ? -1 : System.currentTimeMillis() - lastAttemptAtMillis;
+        st.refreshCount = refreshCount.get();
+        st.failureCount = failureCount.get();
+        st.refreshMs = REFRESH_MS;
+        st.staleMs = STALE_MS;
+        st.maxStaleMs = MAX_STALE_MS;
+        return st;
+    }
+
+    public static class Stats {
+        public int size;
+        public long ageMs;               // -1 = mai aggiornata
+        public long lastRefreshLatencyMs; // -1 = nessun tentativo
+        public long lastAttemptAgeMs;
+        public long refreshCount;
+        public long failureCount;
+        public long refreshMs;
+        public long staleMs;
+        public long maxStaleMs;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
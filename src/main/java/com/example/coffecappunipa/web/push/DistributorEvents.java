@@ -0,0 +1,59 @@
+package com.example.coffecappunipa.web.push;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bus di eventi in-process verso le schermate dei distributori.
+ * Le servlet che cambiano connessione/credito/stato di un distributore chiamano publish();
+ * i canali di notifica (long-poll, ...) si registrano come listener.
+ * Nota: gli eventi sono locali alla singola istanza dell'applicazione.
+ */
+public final class DistributorEvents {
+
+    public static final String CONNECTION = "connection";
+    public static final String CREDIT = "credit";
+    public static final String STATUS = "status";
+
+    public interface Listener {
+        void onEvent(String code, String type);
+    }
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    // Contatore per distributore: permette di capire se è successo qualcosa tra due istanti
+    private static final ConcurrentHashMap<String, AtomicLong> SEQUENCES = new ConcurrentHashMap<>();
+
+    private DistributorEvents() {}
+
+    public static void addListener(Listener l) {
+        LISTENERS.add(l);
+    }
+
+    public static void removeListener(Listener l) {
+        LISTENERS.remove(l);
+    }
+
+    public static void publish(String code, String type) {
+        if (code == null || code.isBlank()) return;
+        String c = code.trim();
+
+        SEQUENCES.computeIfAbsent(c, k -> new AtomicLong()).incrementAndGet();
+
+        for (Listener l : LISTENERS) {
+            try {
+                l.onEvent(c, type);
+            } catch (RuntimeException ex) {
+                // un listener rotto non deve bloccare gli altri né la servlet che pubblica
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    public static long sequence(String code) {
+        AtomicLong seq = SEQUENCES.get(code);
+        return seq == null ? 0 : seq.get();
+    }
+}
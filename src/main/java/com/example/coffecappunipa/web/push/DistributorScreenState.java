@@ -0,0 +1,82 @@
+package com.example.coffecappunipa.web.push;
+
+import com.example.coffecappunipa.persistence.dao.DistributorCodeCache;
+import com.example.coffecappunipa.persistence.dao.DistributorScreenDAO;
+import com.example.coffecappunipa.web.json.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+
+/**
+ * Stato mostrato dalla schermata del distributore (stato operativo + eventuale cliente connesso).
+ * La "version" sono i campi stessi, concatenati: se non cambia, la schermata non ha nulla da aggiornare
+ * (un hash a 32 bit potrebbe restare uguale tra due stati diversi e il long-poll perderebbe l'aggiornamento).
+ */
+public class DistributorScreenState {
+
+    private static final DistributorScreenDAO screenDAO = new DistributorScreenDAO();
+    private static final BigDecimal ZERO_CREDIT = new BigDecimal("0.00");
+
+    private final String status;
+    private final boolean connected;
+    private final long customerId;
+    private final String username;
+    private final BigDecimal credit;
+
+    private DistributorScreenState(String status, boolean connected, long customerId, String username, BigDecimal credit) {
+        this.status = status;
+        this.connected = connected;
+        this.customerId = customerId;
+        this.username = username;
+        this.credit = credit;
+    }
+
+    public static DistributorScreenState load(String code) {
+        String status = DistributorCodeCache.findStatusByCode(code);
+        if (status == null) {
+            status = "UNKNOWN";
+        }
+
+        var opt = screenDAO.findConnectedCustomerByDistributorCode(code);
+        if (opt.isEmpty()) {
+            return new DistributorScreenState(status, false, 0, null, null);
+        }
+
+        var c = opt.get();
+        return new DistributorScreenState(status, true, c.customerId, c.username, c.credit);
+    }
+
+    public String version() {
+        String creditStr = (credit == null) ? "0.00" : credit.toPlainString();
+        return status + "|" + connected + "|" + customerId + "|" + creditStr;
+    }
+
+    public String toJson() {
+        StringWriter out = new StringWriter(160);
+        try {
+            writeJson(new JsonWriter(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter non lancia IOException
+        }
+        return out.toString();
+    }
+
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject()
+                .field("ok", true)
+                .field("version", version())
+                .field("status", status);
+
+        if (!connected) {
+            json.field("connected", false);
+        } else {
+            json.field("connected", true)
+                    .field("customerId", customerId)
+                    .field("username", username)
+                    .field("credit", credit == null ? ZERO_CREDIT : credit);
+        }
+        json.endObject();
+    }
+}
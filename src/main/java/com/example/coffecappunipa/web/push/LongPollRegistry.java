@@ -0,0 +1,130 @@
+package com.example.coffecappunipa.web.push;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Richieste di poll "parcheggiate" (Servlet async: nessun thread occupato durante l'attesa).
+ * Una richiesta viene risvegliata al primo evento del suo distributore oppure allo scadere del timeout;
+ * in entrambi i casi risponde con lo stato corrente.
+ */
+public final class LongPollRegistry {
+
+    private static final ConcurrentHashMap<String, Set<Waiter>> WAITERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger PARKED = new AtomicInteger();
+
+    static {
+        DistributorEvents.addListener(LongPollRegistry::onEvent);
+    }
+
+    private LongPollRegistry() {}
+
+    private static final class Waiter {
+        final String code;
+        final AsyncContext ctx;
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        Waiter(String code, AsyncContext ctx) {
+            this.code = code;
+            this.ctx = ctx;
+        }
+    }
+
+    /**
+     * Parcheggia la richiesta. seqAtRead è DistributorEvents.sequence(code) letto PRIMA di caricare
+     * lo stato inviato dal client: se nel frattempo è arrivato un evento, si risponde subito.
+     */
+    public static void park(String code, AsyncContext ctx, long seqAtRead, long timeoutMs) {
+        Waiter w = new Waiter(code, ctx);
+        ctx.setTimeout(timeoutMs);
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                // thread del container: rispondo direttamente con lo stato attuale
+                if (claim(w)) respond(w);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                claim(w);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                claim(w);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        WAITERS.compute(code, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(w);
+            return set;
+        });
+        PARKED.incrementAndGet();
+
+        if (DistributorEvents.sequence(code) != seqAtRead) {
+            wake(w);
+        }
+    }
+
+    public static int parkedCount() {
+        return PARKED.get();
+    }
+
+    private static void onEvent(String code, String type) {
+        Set<Waiter> set = WAITERS.get(code);
+        if (set == null) return;
+        for (Waiter w : set) {
+            wake(w);
+        }
+    }
+
+    private static void wake(Waiter w) {
+        if (!claim(w)) return;
+        // lettura DB + scrittura su un thread del container, non su quello che ha pubblicato l'evento
+        w.ctx.start(() -> respond(w));
+    }
+
+    private static boolean claim(Waiter w) {
+        if (!w.done.compareAndSet(false, true)) return false;
+        WAITERS.computeIfPresent(w.code, (k, set) -> {
+            set.remove(w);
+            return set.isEmpty() ? null : set;
+        });
+        PARKED.decrementAndGet();
+        return true;
+    }
+
+    private static void respond(Waiter w) {
+        try {
+            HttpServletResponse resp = (HttpServletResponse) w.ctx.getResponse();
+            try {
+                String json = DistributorScreenState.load(w.code).toJson();
+                resp.setStatus(200);
+                resp.getWriter().write(json);
+            } catch (DaoException ex) {
+                ex.printStackTrace();
+                resp.setStatus(500);
+                resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
+            }
+        } catch (IOException | IllegalStateException ignored) {
+            // client già andato via
+        } finally {
+            try { w.ctx.complete(); } catch (IllegalStateException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.coffecappunipa.web.push;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stream Server-Sent Events aperti dai distributori (Servlet async: nessun thread per connessione).
+ * - ad ogni evento del distributore invia "event: <tipo>" con lo stato corrente della schermata
+ * - ogni HEARTBEAT_SECONDS invia un commento ": ping" per non far scadere proxy/load balancer
+ * Le scritture avvengono su un piccolo pool dedicato, mai sul thread che pubblica l'evento.
+ * Output non bloccante (WriteListener): un client che non legge non ferma mai un thread condiviso. I frame restano
+ * in un buffer per stream (al massimo MAX_QUEUED_BYTES); oltre quel limite, o se lo stream resta bloccato per
+ * STALL_SECONDS, lo si chiude: il client si riconnette (retry) e riceve subito lo stato completo.
+ * Gli eventi non si scartano mai: per ogni distributore ce n'è al più uno in attesa (quelli successivi si fondono,
+ * tanto il frame porta lo stato completo), quindi la coda è limitata dal numero di distributori.
+ */
+public final class SseRegistry {
+
+    private static final long HEARTBEAT_SECONDS = 20;
+    private static final int WRITER_THREADS = 2;
+    private static final int MAX_QUEUED_BYTES = 64 * 1024;
+    private static final long STALL_SECONDS = 3 * HEARTBEAT_SECONDS;
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final ConcurrentHashMap<String, Set<Stream>> STREAMS = new ConcurrentHashMap<>();
+    private static final AtomicInteger OPEN = new AtomicInteger();
+
+    // code -> tipo dell'evento in attesa di invio (presente = un task già in coda per quel codice)
+    private static final ConcurrentHashMap<String, String> PENDING = new ConcurrentHashMap<>();
+
+    // coda senza limite ma con al più un task per distributore in attesa, più lo stato iniziale degli stream appena aperti
+    private static final ThreadPoolExecutor WRITER = new ThreadPoolExecutor(
+            WRITER_THREADS, WRITER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            daemonFactory("sse-writer"));
+
+    private static final ScheduledExecutorService HEARTBEAT =
+            Executors.newSingleThreadScheduledExecutor(daemonFactory("sse-heartbeat"));
+
+    static {
+        DistributorEvents.addListener(SseRegistry::onEvent);
+        HEARTBEAT.scheduleAtFixedRate(SseRegistry::heartbeatAll, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private SseRegistry() {}
+
+    private static final class Stream implements WriteListener {
+        final String code;
+        final AsyncContext ctx;
+        final ServletOutputStream out;
+        final AtomicBoolean closed = new AtomicBoolean(false);
+
+        // lock tenuto solo per operazioni non bloccanti (coda in memoria, write/flush in modalità non bloccante)
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        int queuedBytes;
+        boolean unflushed;
+        long stalledSinceNanos; // 0 = il client sta leggendo
+
+        Stream(String code, AsyncContext ctx, ServletOutputStream out) {
+            this.code = code;
+            this.ctx = ctx;
+            this.out = out;
+        }
+
+        // thread del container: il socket è di nuovo scrivibile
+        @Override
+        public void onWritePossible() {
+            drain(this);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(this);
+        }
+    }
+
+    /**
+     * Registra uno stream già avviato in async (header text/event-stream impostati dalla servlet, che deve
+     * usare getOutputStream()) e invia subito lo stato iniziale.
+     */
+    public static void open(String code, AsyncContext ctx) throws IOException {
+        ServletOutputStream out = ctx.getResponse().getOutputStream();
+        Stream s = new Stream(code, ctx, out);
+        ctx.setTimeout(0); // nessun timeout: le connessioni morte emergono dal ping
+        ctx.addListener(new AsyncListener() {
+            @Override public void onComplete(AsyncEvent event) { close(s); }
+            @Override public void onTimeout(AsyncEvent event) { close(s); }
+            @Override public void onError(AsyncEvent event) { close(s); }
+            @Override public void onStartAsync(AsyncEvent event) { }
+        });
+        // da qui in poi le scritture sono non bloccanti: prima di rendere visibile lo stream agli altri thread
+        out.setWriteListener(s);
+
+        STREAMS.compute(code, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(s);
+            return set;
+        });
+        OPEN.incrementAndGet();
+
+        WRITER.execute(() -> sendState(code, Set.of(s), "state"));
+    }
+
+    public static int openCount() {
+        return OPEN.get();
+    }
+
+    private static void onEvent(String code, String type) {
+        if (!STREAMS.containsKey(code)) return;
+
+        // già in attesa: si fonde (tipi diversi => "state", il frame porta comunque lo stato completo)
+        AtomicBoolean first = new AtomicBoolean(false);
+        PENDING.compute(code, (k, prev) -> {
+            if (prev == null) {
+                first.set(true);
+                return type;
+            }
+            return prev.equals(type) ? prev : "state";
+        });
+        if (first.get()) WRITER.execute(() -> sendPending(code));
+    }
+
+    private static void sendPending(String code) {
+        // rimosso PRIMA di leggere lo stato: un evento che arriva durante la lettura rimette in coda il codice
+        String type = PENDING.remove(code);
+        if (type == null) return;
+        Set<Stream> set = STREAMS.get(code);
+        if (set != null) sendState(code, set, type);
+    }
+
+    // Una sola lettura DB per evento, condivisa da tutti gli stream dello stesso distributore.
+    // live è l'insieme condiviso in STREAMS: si copia al momento dell'invio (gli stream chiusi nel frattempo ne escono)
+    private static void sendState(String code, Set<Stream> live, String type) {
+        List<Stream> targets = List.copyOf(live);
+        if (targets.isEmpty()) return;
+
+        String frame;
+        try {
+            frame = "event: " + type + "\ndata: " + DistributorScreenState.load(code).toJson() + "\n\n";
+        } catch (DaoException ex) {
+            ex.printStackTrace();
+            frame = "event: error\ndata: {\"ok\":false,\"message\":\"errore DB\"}\n\n";
+        }
+
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+        for (Stream s : targets) {
+            enqueue(s, bytes, false);
+        }
+    }
+
+    // un solo task per giro, sul thread del ping: nessun task per stream nella coda degli eventi
+    private static void heartbeatAll() {
+        long now = System.nanoTime();
+        for (Set<Stream> set : STREAMS.values()) {
+            for (Stream s : set) {
+                long stalled = s.stalledSinceNanos; // letto senza lock: al peggio si chiude al giro dopo
+                if (stalled != 0 && now - stalled > TimeUnit.SECONDS.toNanos(STALL_SECONDS)) {
+                    fail(s);
+                    continue;
+                }
+                enqueue(s, PING, true);
+            }
+        }
+    }
+
+    private static void enqueue(Stream s, byte[] frame, boolean keepAlive) {
+        if (s.closed.get()) return;
+        boolean overflow = false;
+        s.lock.lock();
+        try {
+            // c'è già qualcosa in attesa: il ping non serve
+            if (keepAlive && !s.queue.isEmpty()) return;
+            if (s.queuedBytes + frame.length > MAX_QUEUED_BYTES) {
+                overflow = true;
+            } else {
+                s.queue.add(frame);
+                s.queuedBytes += frame.length;
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        // client che non legge: si chiude invece di perdere frame in silenzio, alla riconnessione riceve lo stato completo
+        if (overflow) fail(s);
+        else drain(s);
+    }
+
+    // scrive finché il socket accetta dati; se non è pronto il container richiama onWritePossible()
+    private static void drain(Stream s) {
+        boolean failed = false;
+        s.lock.lock();
+        try {
+            while (!s.closed.get()) {
+                if (!s.out.isReady()) {
+                    if (s.stalledSinceNanos == 0) s.stalledSinceNanos = System.nanoTime();
+                    return;
+                }
+                s.stalledSinceNanos = 0;
+
+                byte[] f = s.queue.poll();
+                if (f == null) {
+                    if (!s.unflushed) return;
+                    s.unflushed = false;
+                    s.out.flush();
+                    continue;
+                }
+                s.queuedBytes -= f.length;
+                s.out.write(f);
+                s.unflushed = true;
+            }
+        } catch (IOException | IllegalStateException ex) {
+            failed = true;
+        } finally {
+            s.lock.unlock();
+        }
+        if (failed) fail(s);
+    }
+
+    private static void fail(Stream s) {
+        close(s);
+        try { s.ctx.complete(); } catch (IllegalStateException ignored) {}
+    }
+
+    private static void close(Stream s) {
+        if (!s.closed.compareAndSet(false, true)) return;
+        STREAMS.computeIfPresent(s.code, (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+        OPEN.decrementAndGet();
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
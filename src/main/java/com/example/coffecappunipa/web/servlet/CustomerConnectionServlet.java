@@ -1,20 +1,19 @@
 package com.example.coffecappunipa.web.servlet;
 
 import com.example.coffecappunipa.persistence.dao.ConnectionDAO;
-import com.example.coffecappunipa.persistence.dao.DistributorDAO;
-import com.example.coffecappunipa.persistence.dao.UserDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
-import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.web.json.JsonWriter;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import com.example.coffecappunipa.web.monitor.MonitorStatusSnapshot;
+import com.example.coffecappunipa.web.push.DistributorEvents;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.servlet.http.HttpSession;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
 
 @WebServlet(urlPatterns = {
         "/api/customer/connect",
@@ -25,8 +24,6 @@ import java.util.Map;
 /*Gestisce l'interazione tra il mondo digitale e il distributore fisico.*/
 public class CustomerConnectionServlet extends HttpServlet {
 
-    private final UserDAO userDAO = new UserDAO();
-    private final DistributorDAO distributorDAO = new DistributorDAO();
     private final ConnectionDAO connectionDAO = new ConnectionDAO();
 
     @Override
@@ -56,7 +53,7 @@ public class CustomerConnectionServlet extends HttpServlet {
     private void handleConnect(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         setupJson(resp);
 
-        String username = getLoggedUsername(req);
+        String username = SessionUser.username(req);
         if (username == null) {
             resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             resp.getWriter().write("{\"ok\":false,\"message\":\"sessione non valida\"}");
@@ -72,78 +69,82 @@ public class CustomerConnectionServlet extends HttpServlet {
 
         String code = codeRaw.trim();
 
+        // -----------------------------
+        // BLOCCO ACCESSO: stato effettivo
+        // Regole:
+        // 1) MAINTENANCE (DB principale) => blocca sempre
+        // 2) FAULT nel DB principale => blocca
+        // 3) FAULT runtime (monitor o heartbeat mancanti) => blocca
+        // -----------------------------
+
+        // Runtime status dal monitor (fotografia aggiornata in background, nessuna chiamata HTTP qui)
+        // se il monitor è giù la fotografia scade e non blocco "a caso"
+        boolean runtimeFault = HeartbeatTracker.isFault(code)
+                || "FAULT".equals(safeUpper(MonitorStatusSnapshot.statusOf(code)));
+
         try {
-            var userOpt = userDAO.findByUsername(username);
-            if (userOpt.isEmpty()) {
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
+            // validazione utente/distributore/stato + apertura connessione: una transazione sola
+            Long customerId = SessionUser.id(req);
+            if (customerId == null) {
+                writeConnectError(resp, ConnectionDAO.ERR_USER_NOT_FOUND);
                 return;
             }
 
-            Long distributorId = distributorDAO.findIdByCode(code);
-            if (distributorId == null) {
-                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                resp.getWriter().write("{\"ok\":false,\"message\":\"distributore non trovato\"}");
+            ConnectionDAO.ConnectResult result = connectionDAO.connectCustomer(customerId, code, runtimeFault);
+
+            if (result.error != null) {
+                writeConnectError(resp, result.error);
                 return;
             }
 
-            // -----------------------------
-            // BLOCCO ACCESSO: stato effettivo
-            // Regole:
-            // 1) MAINTENANCE (DB principale) => blocca sempre
-            // 2) FAULT runtime (monitor) => blocca
-            // 3) FAULT nel DB principale => blocca (opzionale)
-            // -----------------------------
-
+            // l'eventuale distributore precedente del cliente è stato liberato
+            if (result.previousCode != null && !result.previousCode.equals(code)) {
+                DistributorEvents.publish(result.previousCode, DistributorEvents.CONNECTION);
+            }
+            DistributorEvents.publish(code, DistributorEvents.CONNECTION);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.getWriter().write("{\"ok\":true}");
 
-            String dbStatus = safeUpper(distributorDAO.findStatusByCode(code)); // ACTIVE/MAINTENANCE/FAULT
+        } catch (DaoException ex) {
+            ex.printStackTrace();
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
+        }
+    }
 
-            if ("MAINTENANCE".equals(dbStatus)) {
+    private void writeConnectError(HttpServletResponse resp, String error) throws IOException {
+        switch (error) {
+            case ConnectionDAO.ERR_USER_NOT_FOUND -> {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
+            }
+            case ConnectionDAO.ERR_DISTRIBUTOR_NOT_FOUND -> {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                resp.getWriter().write("{\"ok\":false,\"message\":\"distributore non trovato\"}");
+            }
+            case ConnectionDAO.ERR_MAINTENANCE -> {
                 resp.setStatus(409);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"distributore in manutenzione\"}");
-                return;
             }
-
-            // Se nel DB principale è già FAULT, blocca.
-            if ("FAULT".equals(dbStatus)) {
+            case ConnectionDAO.ERR_FAULT -> {
                 resp.setStatus(409);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"distributore guasto\"}");
-                return;
-            }
-
-            // Runtime status dal monitor (best-effort)
-            String runtimeStatus = "";
-            try {
-                Map<String, String> runtime = MonitorClient.fetchRuntimeStatuses(); // code -> ACTIVE/MAINTENANCE/FAULT
-                runtimeStatus = safeUpper(runtime.get(code));
-            } catch (Exception ignored) {
-                // se il monitor è giù, non blocco "a caso"
-                runtimeStatus = "";
             }
-
-            if ("FAULT".equals(runtimeStatus)) {
+            case ConnectionDAO.ERR_RUNTIME_FAULT -> {
                 resp.setStatus(409);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"distributore guasto (heartbeat assente)\"}");
-                return;
             }
-
-
-            // Ok, può connettersi
-            connectionDAO.connect(userOpt.get().getId(), distributorId);
-            resp.setStatus(HttpServletResponse.SC_OK);
-            resp.getWriter().write("{\"ok\":true}");
-
-        } catch (DaoException ex) {
-            ex.printStackTrace();
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
+            default -> {
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
+            }
         }
     }
 
     private void handleDisconnect(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         setupJson(resp);
 
-        String username = getLoggedUsername(req);
+        String username = SessionUser.username(req);
         if (username == null) {
             resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             resp.getWriter().write("{\"ok\":false,\"message\":\"sessione non valida\"}");
@@ -151,14 +152,16 @@ public class CustomerConnectionServlet extends HttpServlet {
         }
 
         try {
-            var userOpt = userDAO.findByUsername(username);
-            if (userOpt.isEmpty()) {
+            Long customerId = SessionUser.id(req);
+            if (customerId == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
                 return;
             }
 
-            connectionDAO.disconnect(userOpt.get().getId());
+            String previousCode = connectionDAO.findActiveDistributorCodeByCustomerId(customerId);
+            connectionDAO.disconnect(customerId);
+            DistributorEvents.publish(previousCode, DistributorEvents.CONNECTION);
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.getWriter().write("{\"ok\":true}");
 
@@ -172,7 +175,7 @@ public class CustomerConnectionServlet extends HttpServlet {
     private void handleCurrent(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         setupJson(resp);
 
-        String username = getLoggedUsername(req);
+        String username = SessionUser.username(req);
         if (username == null) {
             resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             resp.getWriter().write("{\"ok\":false,\"message\":\"sessione non valida\"}");
@@ -180,22 +183,26 @@ public class CustomerConnectionServlet extends HttpServlet {
         }
 
         try {
-            var userOpt = userDAO.findByUsername(username);
-            if (userOpt.isEmpty()) {
+            Long customerId = SessionUser.id(req);
+            if (customerId == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
                 return;
             }
 
-            Long distId = connectionDAO.findActiveDistributorId(userOpt.get().getId());
-            String distCode = connectionDAO.findActiveDistributorCodeByCustomerId(userOpt.get().getId());
+            Long distId = connectionDAO.findActiveDistributorId(customerId);
+            String distCode = connectionDAO.findActiveDistributorCodeByCustomerId(customerId);
 
             resp.setStatus(HttpServletResponse.SC_OK);
             if (distId == null || distCode == null || distCode.isEmpty()) {
                 resp.getWriter().write("{\"ok\":true,\"connected\":false}");
             } else {
-                resp.getWriter().write("{\"ok\":true,\"connected\":true,\"distributorId\":" + distId +
-                        ",\"distributorCode\":\"" + escape(distCode) + "\"}");
+                JsonWriter.of(resp).beginObject()
+                        .field("ok", true)
+                        .field("connected", true)
+                        .field("distributorId", distId)
+                        .field("distributorCode", distCode)
+                        .endObject();
             }
 
         } catch (DaoException ex) {
@@ -205,13 +212,6 @@ public class CustomerConnectionServlet extends HttpServlet {
         }
     }
 
-    private String getLoggedUsername(HttpServletRequest req) {
-        HttpSession s = req.getSession(false);
-        if (s == null) return null;
-        Object u = s.getAttribute(RoutingServlet.SESSION_USERNAME);
-        return u == null ? null : u.toString();
-    }
-
     private void setupJson(HttpServletResponse resp) {
         resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
         resp.setContentType("application/json");
@@ -222,11 +222,6 @@ public class CustomerConnectionServlet extends HttpServlet {
         return s == null || s.trim().isEmpty();
     }
 
-    private String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
-
     private String safeUpper(String s) {
         return s == null ? "" : s.trim().toUpperCase();
     }
@@ -2,6 +2,7 @@ package com.example.coffecappunipa.web.servlet;
 
 import com.example.coffecappunipa.persistence.dao.UserDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.json.JsonWriter;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -12,7 +13,9 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.authentication.password.HaveIBeenPwnedRestApiReactivePasswordChecker;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
 
 @WebServlet(urlPatterns = {
         "/api/customer/register",
@@ -121,28 +124,24 @@ public class CustomerServlet extends HttpServlet {
 
 
 
-        String username = u.toString();
-
         try {
-            var opt = userDAO.findByUsername(username);
-            if (opt.isEmpty()) {
+            // identità (id, username, ruolo) dalla sessione; dal DB solo il credito
+            Long userId = SessionUser.id(req);
+            Optional<BigDecimal> credit = (userId == null) ? Optional.empty() : userDAO.findCreditById(userId);
+            if (credit.isEmpty()) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
                 return;
             }
 
-            var user = opt.get();
-
-            String json = "{"
-                    + "\"ok\":true,"
-                    + "\"id\":" + user.getId() + ","
-                    + "\"username\":\"" + escape(user.getUsername()) + "\","
-                    + "\"role\":\"" + escape(user.getRole()) + "\","
-                    + "\"credit\":" + user.getCredit()
-                    + "}";
-
             resp.setStatus(HttpServletResponse.SC_OK);
-            resp.getWriter().write(json);
+            JsonWriter.of(resp).beginObject()
+                    .field("ok", true)
+                    .field("id", userId)
+                    .field("username", u.toString())
+                    .field("role", r.toString().toUpperCase())
+                    .field("credit", credit.get())
+                    .endObject();
 
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -173,17 +172,15 @@ public class CustomerServlet extends HttpServlet {
 
             var u = opt.get();
 
-            String json = "{"
-                    + "\"ok\":true,"
-                    + "\"id\":" + u.getId() + ","
-                    + "\"username\":\"" + escape(u.getUsername()) + "\","
-                    + "\"email\":\"" + escape(u.getEmail()) + "\","
-                    + "\"role\":\"" + escape(u.getRole()) + "\","
-                    + "\"credit\":" + u.getCredit()
-                    + "}";
-
             resp.setStatus(HttpServletResponse.SC_OK);
-            resp.getWriter().write(json);
+            JsonWriter.of(resp).beginObject()
+                    .field("ok", true)
+                    .field("id", u.getId())
+                    .field("username", u.getUsername())
+                    .field("email", u.getEmail())
+                    .field("role", u.getRole())
+                    .field("credit", u.getCredit())
+                    .endObject();
 
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -195,9 +192,4 @@ public class CustomerServlet extends HttpServlet {
     private boolean isBlank(String s) {
         return s == null || s.trim().isEmpty();
     }
-
-    private String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
 }
@@ -1,13 +1,14 @@
 package com.example.coffecappunipa.web.servlet;
 
+import com.example.coffecappunipa.persistence.dao.ConnectionDAO;
 import com.example.coffecappunipa.persistence.dao.UserDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.push.DistributorEvents;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.servlet.http.HttpSession;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -17,6 +18,7 @@ import java.nio.charset.StandardCharsets;
 public class CustomerTopUpServlet extends HttpServlet {
 
     private final UserDAO userDAO = new UserDAO();
+    private final ConnectionDAO connectionDAO = new ConnectionDAO();
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -24,7 +26,7 @@ public class CustomerTopUpServlet extends HttpServlet {
         resp.setContentType("application/json");
         resp.setHeader("Cache-Control", "no-store");
 
-        String username = getLoggedUsername(req);
+        String username = SessionUser.username(req);
         if (username == null) {
             resp.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             resp.getWriter().write("{\"ok\":false,\"message\":\"sessione non valida\"}");
@@ -54,15 +56,18 @@ public class CustomerTopUpServlet extends HttpServlet {
         }
 
         try {
-            var opt = userDAO.findByUsername(username);
-            if (opt.isEmpty()) {
+            Long userId = SessionUser.id(req);
+            if (userId == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"utente non trovato\"}");
                 return;
             }
 
-            var user = opt.get();
-            BigDecimal newCredit = userDAO.topUpCredit(user.getId(), amount);
+            BigDecimal newCredit = userDAO.topUpCredit(userId, amount);
+
+            // se il cliente è connesso a un distributore, la schermata mostra subito il nuovo credito
+            String connectedCode = connectionDAO.findActiveDistributorCodeByCustomerId(userId);
+            DistributorEvents.publish(connectedCode, DistributorEvents.CREDIT);
 
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.getWriter().write("{\"ok\":true,\"credit\":" + newCredit + "}");
@@ -73,11 +78,4 @@ public class CustomerTopUpServlet extends HttpServlet {
             resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
         }
     }
-
-    private String getLoggedUsername(HttpServletRequest req) {
-        HttpSession s = req.getSession(false);
-        if (s == null) return null;
-        Object u = s.getAttribute(RoutingServlet.SESSION_USERNAME);
-        return u == null ? null : u.toString();
-    }
 }
@@ -1,8 +1,11 @@
 package com.example.coffecappunipa.web.servlet;
 
+import com.example.coffecappunipa.persistence.dao.DistributorCodeCache;
 import com.example.coffecappunipa.persistence.dao.DistributorDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
-import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.security.DistributorTokenCache;
+import com.example.coffecappunipa.web.monitor.HeartbeatAggregator;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -34,7 +37,7 @@ public class DistributorBootServlet extends HttpServlet {
 
         try {
             // 1) Verifica che esista
-            Long id = distributorDAO.findIdByCode(code);
+            Long id = DistributorCodeCache.findIdByCode(code);
             if (id == null) {
                 resp.setStatus(404);
                 resp.getWriter().write("{\"ok\":false,\"message\":\"Distributore non registrato dal Manager\"}");
@@ -54,11 +57,11 @@ public class DistributorBootServlet extends HttpServlet {
 
             // 4) Salva token nel DB
             distributorDAO.updateSecurityToken(code, token);
+            DistributorTokenCache.tokenIssued(code, token);
 
             // 5) Notifica monitor (best effort)
-            try {
-                MonitorClient.heartbeat(code);
-            } catch (Exception ignored) { }
+            HeartbeatTracker.beat(code);
+            HeartbeatAggregator.offer(code);
 
             // 6) Risposta OK
             resp.setStatus(200);
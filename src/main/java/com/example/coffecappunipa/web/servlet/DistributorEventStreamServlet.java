@@ -0,0 +1,43 @@
+package com.example.coffecappunipa.web.servlet;
+
+import com.example.coffecappunipa.web.push.SseRegistry;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+
+/*Canale push (Server-Sent Events) per le schermate dei distributori, alternativo al polling.*/
+@WebServlet(urlPatterns = "/api/distributor/events", asyncSupported = true)
+public class DistributorEventStreamServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        // Identità dal DistributorTokenFilter (header X-Distributor-Auth)
+        Principal principal = req.getUserPrincipal();
+        if (principal == null) {
+            resp.sendError(401, "Autenticazione mancante");
+            return;
+        }
+        String code = principal.getName();
+
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setContentType("text/event-stream");
+        resp.setHeader("Cache-Control", "no-store");
+        resp.setHeader("X-Accel-Buffering", "no"); // evita il buffering dei reverse proxy (nginx)
+        resp.setStatus(200);
+
+        // reconnessione automatica del client dopo 3s se lo stream cade
+        // (output stream e non writer: SseRegistry lo usa in modalità non bloccante)
+        resp.getOutputStream().write("retry: 3000\n\n".getBytes(StandardCharsets.UTF_8));
+        resp.flushBuffer();
+
+        AsyncContext ctx = req.startAsync(req, resp);
+        SseRegistry.open(code, ctx);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.coffecappunipa.web.servlet;
+
+import com.example.coffecappunipa.web.monitor.HeartbeatAggregator;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Heartbeat della schermata distributore (ogni 60s da distributor.poll.js).
+ * Registrato nel tracker locale (HeartbeatTracker) e accodato per l'inoltro a blocchi al monitor (HeartbeatAggregator):
+ * la risposta parte subito, senza aspettare il monitor.
+ */
+@WebServlet(urlPatterns = "/api/distributor/heartbeat")
+public class DistributorHeartbeatServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "no-store");
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+
+        // Deve arrivare autenticato dal DistributorTokenFilter
+        if (auth == null || !auth.isAuthenticated()
+                || auth.getAuthorities().stream().noneMatch(a -> "ROLE_DISTRIBUTOR".equals(a.getAuthority()))) {
+            resp.setStatus(401);
+            resp.getWriter().write("{\"ok\":false,\"message\":\"unauthorized\"}");
+            return;
+        }
+
+        // Il principal è il codice distributore (es. UNIPA-001) impostato dal filtro
+        String code = String.valueOf(auth.getPrincipal());
+
+        HeartbeatTracker.beat(code);
+        HeartbeatAggregator.offer(code);
+
+        resp.setStatus(200);
+        resp.getWriter().write("{\"ok\":true}");
+    }
+}
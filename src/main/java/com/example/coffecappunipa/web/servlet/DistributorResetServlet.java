@@ -2,6 +2,7 @@ package com.example.coffecappunipa.web.servlet;
 
 import com.example.coffecappunipa.persistence.dao.DistributorDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.security.DistributorTokenCache;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -39,6 +40,7 @@ public class DistributorResetServlet extends HttpServlet {
         try {
             // Imposta token a NULL nel DB
             distributorDAO.updateSecurityToken(distributorCode, null);
+            DistributorTokenCache.invalidateCode(distributorCode);
 
             resp.setStatus(200);
             resp.getWriter().write("{\"ok\":true,\"message\":\"reset_ok\"}");
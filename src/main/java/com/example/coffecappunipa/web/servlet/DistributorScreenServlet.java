@@ -1,16 +1,22 @@
 package com.example.coffecappunipa.web.servlet;
 
-import com.example.coffecappunipa.persistence.dao.BeverageDAO;
-import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+import com.example.coffecappunipa.persistence.dao.BeverageCatalog;
 import com.example.coffecappunipa.persistence.dao.DistributorScreenDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.json.JsonWriter;
+import com.example.coffecappunipa.web.push.DistributorEvents;
+import com.example.coffecappunipa.web.push.DistributorScreenState;
+import com.example.coffecappunipa.web.push.LongPollRegistry;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.security.Principal; // Import fondamentale per la sicurezza
 
@@ -18,12 +24,14 @@ import java.security.Principal; // Import fondamentale per la sicurezza
         "/api/distributor/poll",
         "/api/distributor/beverages",
         "/api/distributor/purchase"
-})
+}, asyncSupported = true)
 public class DistributorScreenServlet extends HttpServlet {
 
+    // Long-poll: attesa massima accettata (sotto i timeout tipici dei proxy)
+    private static final int MAX_WAIT_SECONDS = 30;
+    private static final BigDecimal ZERO_PRICE = new BigDecimal("0.00");
+
     private final DistributorScreenDAO screenDAO = new DistributorScreenDAO();
-    private final BeverageDAO beverageDAO = new BeverageDAO();
-    private final DistributorDAO distributorDAO = new DistributorDAO();
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -34,7 +42,7 @@ public class DistributorScreenServlet extends HttpServlet {
 
         String uri = req.getRequestURI();
         if (uri.endsWith("/poll")) { handlePoll(req, resp); return; }
-        if (uri.endsWith("/beverages")) { handleBeverages(resp); return; }
+        if (uri.endsWith("/beverages")) { handleBeverages(req, resp); return; }
 
         resp.sendError(HttpServletResponse.SC_NOT_FOUND);
     }
@@ -60,36 +68,25 @@ public class DistributorScreenServlet extends HttpServlet {
         }
         String code = principal.getName(); // Restituisce il codice (es. UNIPA-001) estratto dal Token
 
-        try {
-            // 2. Recupera Stato Operativo
-            String status = distributorDAO.findStatusByCode(code);
-            if(status == null){
+        // Long-poll (opzionale): since = ultima version vista dal device, wait = secondi di attesa
+        String since = trim(req.getParameter("since"));
+        int waitSec = parseWaitSeconds(req.getParameter("wait"));
 
-                status = "UNKNOWN";
-            }
-
-            // 3. Recupera Utente Connesso (Logica Business)
-            var opt = screenDAO.findConnectedCustomerByDistributorCode(code);
-
-            // Costruiamo il JSON
-            StringBuilder json = new StringBuilder();
-            json.append("{")
-                    .append("\"ok\":true,")
-                    .append("\"status\":\"").append(status).append("\",");
-
-            if (opt.isEmpty()) {
-                json.append("\"connected\":false");
-            } else {
-                var c = opt.get();
-                json.append("\"connected\":true,")
-                        .append("\"customerId\":").append(c.customerId).append(",")
-                        .append("\"username\":\"").append(escJson(c.username)).append("\",")
-                        .append("\"credit\":").append(c.credit == null ? "0.00" : c.credit.toPlainString());
+        try {
+            // 2. Stato Operativo + Utente Connesso (sequenza letta PRIMA dello stato: niente eventi persi)
+            long seq = DistributorEvents.sequence(code);
+            DistributorScreenState state = DistributorScreenState.load(code);
+
+            // 3. Stato diverso da quello del device (o poll classico): rispondo subito
+            if (isBlank(since) || waitSec <= 0 || !since.equals(state.version()) || !req.isAsyncSupported()) {
+                resp.setStatus(200);
+                state.writeJson(JsonWriter.of(resp));
+                return;
             }
-            json.append("}");
 
-            resp.setStatus(200);
-            resp.getWriter().write(json.toString());
+            // 4. Niente di nuovo: parcheggio la richiesta finché cambia qualcosa o scade il timeout
+            AsyncContext ctx = req.startAsync(req, resp);
+            LongPollRegistry.park(code, ctx, seq, waitSec * 1000L);
 
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -98,25 +95,40 @@ public class DistributorScreenServlet extends HttpServlet {
         }
     }
 
-    private void handleBeverages(HttpServletResponse resp) throws IOException {
+    private int parseWaitSeconds(String raw) {
+        if (isBlank(raw)) return 0;
         try {
-            var list = beverageDAO.findActive();
-
-            StringBuilder json = new StringBuilder();
-            json.append("{\"ok\":true,\"items\":[");
-            for (int i = 0; i < list.size(); i++) {
-                var b = list.get(i);
-                if (i > 0) json.append(",");
-                json.append("{")
-                        .append("\"id\":").append(b.id).append(",")
-                        .append("\"name\":\"").append(escJson(b.name)).append("\",")
-                        .append("\"price\":").append(b.price == null ? "0.00" : b.price.toPlainString())
-                        .append("}");
+            int w = Integer.parseInt(raw.trim());
+            if (w < 0) return 0;
+            return Math.min(w, MAX_WAIT_SECONDS);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void handleBeverages(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            BeverageCatalog.Snapshot catalog = BeverageCatalog.get();
+
+            // il listino cambia di rado: il client tiene la copia e la rivalida con l'ETag (304 senza corpo)
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.setHeader("ETag", catalog.etag);
+            if (matchesEtag(req.getHeader("If-None-Match"), catalog.etag)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
             }
-            json.append("]}");
 
             resp.setStatus(200);
-            resp.getWriter().write(json.toString());
+            JsonWriter json = JsonWriter.of(resp);
+            json.beginObject().field("ok", true).field("version", catalog.version).name("items").beginArray();
+            for (var b : catalog.items) {
+                json.beginObject()
+                        .field("id", b.id)
+                        .field("name", b.name)
+                        .field("price", b.price == null ? ZERO_PRICE : b.price)
+                        .endObject();
+            }
+            json.endArray().endObject();
 
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -125,6 +137,16 @@ public class DistributorScreenServlet extends HttpServlet {
         }
     }
 
+    private boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.startsWith("W/")) t = t.substring(2); // confronto debole, come previsto per If-None-Match
+            if (t.equals("*") || t.equals(etag)) return true;
+        }
+        return false;
+    }
+
     private void handlePurchase(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         // 1. RECUPERO IDENTITÀ SICURA
         Principal principal = req.getUserPrincipal();
@@ -162,6 +184,8 @@ public class DistributorScreenServlet extends HttpServlet {
             // 3. Esecuzione Transazione
             // Passiamo il codice sicuro recuperato dal token, non quello (eventuale) dell'URL
             var newCredit = screenDAO.performPurchase(code, bevId, sugarQty);
+            DistributorEvents.publish(code, DistributorEvents.CREDIT);
+            DistributorsStateXmlCache.invalidate(); // scorte cambiate
 
             resp.setStatus(200);
             resp.getWriter().write("{\"ok\":true,\"credit\":" + newCredit.toPlainString() + "}");
@@ -209,9 +233,4 @@ public class DistributorScreenServlet extends HttpServlet {
 
     private String trim(String s) { return s == null ? null : s.trim(); }
     private boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
-
-    private String escJson(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
 }
\ No newline at end of file
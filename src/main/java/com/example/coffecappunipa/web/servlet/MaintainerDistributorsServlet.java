@@ -1,8 +1,11 @@
 package com.example.coffecappunipa.web.servlet;
 
 import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+import com.example.coffecappunipa.persistence.dao.MonitorOutboxDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
-import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.web.monitor.MonitorOutboxDispatcher;
+import com.example.coffecappunipa.web.push.DistributorEvents;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -12,6 +15,8 @@ import jakarta.servlet.http.HttpSession;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 @WebServlet(urlPatterns = {
         "/api/maintainer/distributors/refill",
@@ -57,6 +62,7 @@ public class MaintainerDistributorsServlet extends HttpServlet {
 
         try {
             distributorDAO.refillSuppliesByCode(code.trim(), coffee, milk, sugar, cups);
+            DistributorsStateXmlCache.invalidate();
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.getWriter().write("{\"ok\":true}");
 
@@ -85,16 +91,20 @@ public class MaintainerDistributorsServlet extends HttpServlet {
         }
 
         try {
-            distributorDAO.updateStatusByCode(code.trim(), dbStatus);
-
-            // BEST-EFFORT: aggiorna anche il monitor (servizio senza auth)
-            MonitorClient.updateStatus(code.trim(), dbStatus);
+            // Il monitor viene aggiornato via outbox (stessa transazione dell'update)
+            List<MonitorOutboxDAO.Message> monitor = new ArrayList<>();
+            monitor.add(MonitorOutboxDAO.Message.status(code.trim(), dbStatus));
 
             //se lo stato è attivo mandiamo un heartbeat
             if ("ACTIVE".equals(dbStatus)) {
-                MonitorClient.heartbeat(code.trim());
+                monitor.add(MonitorOutboxDAO.Message.heartbeat(code.trim()));
             }
 
+            distributorDAO.updateStatusByCode(code.trim(), dbStatus, monitor);
+            MonitorOutboxDispatcher.wakeUp();
+            DistributorsStateXmlCache.invalidate();
+            DistributorEvents.publish(code.trim(), DistributorEvents.STATUS);
+
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.getWriter().write("{\"ok\":true}");
 
@@ -1,5 +1,7 @@
 package com.example.coffecappunipa.web.servlet;
 
+import com.example.coffecappunipa.web.json.JsonWriter;
+
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -50,11 +52,10 @@ public class MaintainerServlet extends HttpServlet {
 
         String username = u.toString();
         resp.setStatus(HttpServletResponse.SC_OK);
-        resp.getWriter().write("{\"ok\":true,\"username\":\"" + escape(username) + "\", \"role\":\"MAINTAINER\"}");
-    }
-
-    private String escape(String s){
-        if(s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+        JsonWriter.of(resp).beginObject()
+                .field("ok", true)
+                .field("username", username)
+                .field("role", "MAINTAINER")
+                .endObject();
     }
 }
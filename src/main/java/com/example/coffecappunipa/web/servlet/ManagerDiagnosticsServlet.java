@@ -0,0 +1,332 @@
+package com.example.coffecappunipa.web.servlet;
+
+import com.example.coffecappunipa.persistence.dao.BeverageCatalog;
+import com.example.coffecappunipa.persistence.dao.DistributorCodeCache;
+import com.example.coffecappunipa.persistence.dao.DistributorScreenDAO;
+import com.example.coffecappunipa.persistence.dao.MonitorOutboxDAO;
+import com.example.coffecappunipa.persistence.dao.PurchaseLedger;
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.persistence.util.DbConnectionManager;
+import com.example.coffecappunipa.persistence.util.TtlCache;
+import com.example.coffecappunipa.security.DistributorTokenCache;
+import com.example.coffecappunipa.web.json.JsonWriter;
+import com.example.coffecappunipa.web.monitor.CircuitBreaker;
+import com.example.coffecappunipa.web.monitor.HeartbeatAggregator;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.web.monitor.MonitorOutboxDispatcher;
+import com.example.coffecappunipa.web.monitor.MonitorReconciler;
+import com.example.coffecappunipa.web.monitor.MonitorStatusSnapshot;
+import com.example.coffecappunipa.web.push.LongPollRegistry;
+import com.example.coffecappunipa.web.push.SseRegistry;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/*Metriche runtime per il tuning (pool DB, ...). Solo gestore.*/
+@WebServlet(urlPatterns = "/api/manager/diagnostics")
+public class ManagerDiagnosticsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "no-store");
+
+        if (!isManager(req)) {
+            resp.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            resp.getWriter().write("{\"ok\":false,\"message\":\"ruolo non autorizzato\"}");
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+
+        JsonWriter json = JsonWriter.of(resp);
+        json.beginObject().field("ok", true);
+        writeDbPool(json);
+        writeCache(json, "tokenCache", DistributorTokenCache.getStats());
+        writeCache(json, "distributorCodeCache", DistributorCodeCache.getStats());
+        json.name("longPoll").beginObject().field("parked", LongPollRegistry.parkedCount()).endObject();
+        json.name("sse").beginObject().field("open", SseRegistry.openCount()).endObject();
+        writeMonitorSnapshot(json);
+        writeMonitorOutbox(json);
+        writeMonitorReconciler(json);
+        writeHeartbeats(json);
+        writeMonitorClient(json);
+        writeStateXml(json);
+        writeBeverageCatalog(json);
+        writePurchases(json);
+        writeJvm(json);
+        json.endObject();
+    }
+
+    private void writeDbPool(JsonWriter json) throws IOException {
+        DbConnectionManager.PoolStats p = DbConnectionManager.getPoolStats();
+        json.name("dbPool").beginObject()
+                .field("initialized", p.initialized)
+                .field("maxSize", p.maxSize)
+                .field("minIdle", p.minIdle)
+                .field("connectionTimeoutMs", p.connectionTimeoutMs)
+                .field("active", p.active)
+                .field("idle", p.idle)
+                .field("total", p.total)
+                .field("waiting", p.waiting)
+                .field("acquireCount", p.acquireCount)
+                .field("acquireTimeouts", p.acquireTimeouts)
+                .field("acquireAvgMicros", p.acquireAvgMicros)
+                .field("acquireMaxMicros", p.acquireMaxMicros)
+                .endObject();
+    }
+
+    // per il confronto thread di piattaforma / virtual thread (i virtual thread non compaiono nei conteggi del MXBean)
+    private void writeJvm(JsonWriter json) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        json.name("jvm").beginObject()
+                .field("javaVersion", Runtime.version().toString())
+                .field("requestOnVirtualThread", isVirtual(Thread.currentThread()))
+                .field("platformThreads", threads.getThreadCount())
+                .field("peakPlatformThreads", threads.getPeakThreadCount())
+                .field("heapUsedBytes", heap.getUsed())
+                .field("heapCommittedBytes", heap.getCommitted())
+                .field("nonHeapUsedBytes", nonHeap.getUsed())
+                .endObject();
+    }
+
+    // Thread.isVirtual() esiste solo da Java 21: il build di default è ancora Java 17
+    private static boolean isVirtual(Thread t) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private void writeMonitorSnapshot(JsonWriter json) throws IOException {
+        MonitorStatusSnapshot.Stats m = MonitorStatusSnapshot.getStats();
+        json.name("monitorSnapshot").beginObject()
+                .field("size", m.size)
+                .field("ageMs", m.ageMs)
+                .field("lastRefreshLatencyMs", m.lastRefreshLatencyMs)
+                .field("lastAttemptAgeMs", m.lastAttemptAgeMs)
+                .field("refreshCount", m.refreshCount)
+                .field("failureCount", m.failureCount)
+                .field("refreshMs", m.refreshMs)
+                .field("staleMs", m.staleMs)
+                .field("maxStaleMs", m.maxStaleMs)
+                .endObject();
+    }
+
+    private void writeMonitorOutbox(JsonWriter json) throws IOException {
+        MonitorOutboxDispatcher.Stats d = MonitorOutboxDispatcher.getStats();
+        json.name("monitorOutbox").beginObject()
+                .field("running", d.running)
+                .field("sent", d.sent)
+                .field("failed", d.failed)
+                .field("dead", d.dead)
+                .field("cycles", d.cycles)
+                .field("lastCycleMs", d.lastCycleMs)
+                .field("failing", d.failing);
+        if (d.lastError == null) json.name("lastError").nullValue();
+        else json.field("lastError", d.lastError);
+        json.field("pollMs", d.pollMs)
+                .field("batchSize", d.batchSize)
+                .field("maxAttempts", d.maxAttempts);
+
+        // profondità della coda e lag: letti dalla tabella (se il DB non risponde si omettono)
+        try {
+            MonitorOutboxDAO.OutboxStats q = new MonitorOutboxDAO().stats();
+            json.field("queueDepth", q.pending)
+                    .field("deadInTable", q.dead)
+                    .field("oldestPendingAgeMs", q.oldestPendingAgeMs);
+        } catch (DaoException ignored) {
+        }
+        json.endObject();
+    }
+
+    private void writeMonitorReconciler(JsonWriter json) throws IOException {
+        MonitorReconciler.Stats r = MonitorReconciler.getStats();
+        json.name("monitorReconciler").beginObject()
+                .field("running", r.running)
+                .field("runs", r.runs)
+                .field("skippedBusy", r.skippedBusy)
+                .field("skippedUnchanged", r.skippedUnchanged)
+                .field("failures", r.failures)
+                .field("totalUpdated", r.totalUpdated)
+                .field("lastRunAgeMs", r.lastRunAgeMs)
+                .field("lastDurationMs", r.lastDurationMs)
+                .field("lastUpdated", r.lastUpdated)
+                .field("lastUnchanged", r.lastUnchanged)
+                .field("lastMissing", r.lastMissing)
+                .field("lastInvalid", r.lastInvalid)
+                .field("lastExcluded", r.lastExcluded);
+        if (r.lastError == null) json.name("lastError").nullValue();
+        else json.field("lastError", r.lastError);
+        json.field("intervalMs", r.intervalMs)
+                .field("fullMs", r.fullMs)
+                .endObject();
+    }
+
+    private void writeHeartbeats(JsonWriter json) throws IOException {
+        HeartbeatTracker.Stats h = HeartbeatTracker.getStats();
+        json.name("heartbeats").beginObject()
+                .field("running", h.running)
+                .field("tracked", h.tracked)
+                .field("faults", h.faults)
+                .field("received", h.received)
+                .field("timeouts", h.timeouts)
+                .field("recoveries", h.recoveries)
+                .field("rescheduled", h.rescheduled)
+                .field("lastTickWorkMicros", h.lastTickWorkMicros)
+                .field("timeoutMs", h.timeoutMs)
+                .field("tickMs", h.tickMs)
+                .field("wheelSlots", h.wheelSlots)
+                .endObject();
+
+        HeartbeatAggregator.Stats a = HeartbeatAggregator.getStats();
+        json.name("heartbeatForwarding").beginObject()
+                .field("running", a.running)
+                .field("pending", a.pending)
+                .field("received", a.received)
+                .field("merged", a.merged)
+                .field("dropped", a.dropped)
+                .field("flushes", a.flushes)
+                .field("requests", a.requests)
+                .field("forwarded", a.forwarded)
+                .field("failed", a.failed)
+                .field("lastFlushCodes", a.lastFlushCodes)
+                .field("lastFlushMs", a.lastFlushMs);
+        if (a.lastError == null) json.name("lastError").nullValue();
+        else json.field("lastError", a.lastError);
+        json.field("batchEndpoint", a.batchEndpoint)
+                .field("flushMs", a.flushMs)
+                .field("batchSize", a.batchSize)
+                .field("maxPending", a.maxPending)
+                .endObject();
+    }
+
+    private void writeMonitorClient(JsonWriter json) throws IOException {
+        MonitorClient.Stats m = MonitorClient.getStats();
+        CircuitBreaker.Stats b = m.breaker;
+        json.name("monitorClient").beginObject()
+                .field("breakerState", b.state)
+                .field("consecutiveFailures", b.consecutiveFailures)
+                .field("openForMs", b.openForMs)
+                .field("rejected", b.rejected)
+                .field("opens", b.opens)
+                .field("failures", b.failures)
+                .field("successes", b.successes)
+                .field("failureThreshold", b.failureThreshold)
+                .field("openMs", b.openMs)
+                .field("bulkheadActive", m.bulkheadActive)
+                .field("bulkheadQueued", m.bulkheadQueued)
+                .field("bulkheadMaxThreads", m.bulkheadMaxThreads)
+                .field("bulkheadRejected", m.bulkheadRejected)
+                .field("timeouts", m.timeouts)
+                .field("asyncInFlight", m.asyncInFlight)
+                .field("asyncMaxInFlight", m.asyncMaxInFlight)
+                .field("callTimeoutMs", m.callTimeoutMs)
+                .endObject();
+    }
+
+    private void writeStateXml(JsonWriter json) throws IOException {
+        DistributorsStateXmlCache.Stats x = DistributorsStateXmlCache.getStats();
+        json.name("stateXml").beginObject()
+                .field("hits", x.hits)
+                .field("rebuilds", x.rebuilds)
+                .field("lastRebuildMs", x.lastRebuildMs)
+                .field("sizeBytes", x.sizeBytes)
+                .field("gzipBytes", x.gzipBytes)
+                .field("ageMs", x.ageMs)
+                .field("maxAgeMs", x.maxAgeMs)
+                .endObject();
+    }
+
+    private void writeBeverageCatalog(JsonWriter json) throws IOException {
+        BeverageCatalog.Stats c = BeverageCatalog.getStats();
+        json.name("beverageCatalog").beginObject()
+                .field("hits", c.hits)
+                .field("checks", c.checks)
+                .field("reloads", c.reloads)
+                .field("version", c.version)
+                .field("dbVersion", c.dbVersion)
+                .field("size", c.size)
+                .field("checkMs", c.checkMs)
+                .endObject();
+    }
+
+    private void writePurchases(JsonWriter json) throws IOException {
+        json.name("purchases").beginObject().field("mode", DistributorScreenDAO.getPurchaseMode());
+        writePurchaseStats(json, DistributorScreenDAO.MODE_JDBC);
+        writePurchaseStats(json, DistributorScreenDAO.MODE_PROCEDURE);
+        writePurchaseStats(json, DistributorScreenDAO.MODE_GROUP);
+        writePurchaseLedger(json);
+        json.endObject();
+    }
+
+    private void writePurchaseLedger(JsonWriter json) throws IOException {
+        PurchaseLedger.Stats l = PurchaseLedger.getStats();
+        json.name("groupCommit").beginObject()
+                .field("running", l.running)
+                .field("queued", l.queued)
+                .field("batches", l.batches)
+                .field("committed", l.committed)
+                .field("rejected", l.rejected)
+                .field("fallbacks", l.fallbacks)
+                .field("batchRetries", l.batchRetries)
+                .field("unknownOutcomes", l.unknownOutcomes)
+                .field("maxBatch", l.maxBatch)
+                .field("avgCommitMicros", l.avgCommitMicros)
+                .field("windowMs", l.windowMs)
+                .field("maxBatchSize", l.maxBatchSize)
+                .name("byBatchSize").beginArray();
+        for (PurchaseLedger.BucketStats b : l.buckets) {
+            json.beginObject()
+                    .field("size", b.label)
+                    .field("batches", b.batches)
+                    .field("purchases", b.purchases)
+                    .field("avgLatencyMicros", b.avgLatencyMicros)
+                    .endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    private void writePurchaseStats(JsonWriter json, String mode) throws IOException {
+        DistributorScreenDAO.PurchaseStats p = DistributorScreenDAO.getPurchaseStats(mode);
+        json.name(mode).beginObject()
+                .field("count", p.count)
+                .field("errors", p.errors)
+                .field("avgMicros", p.avgMicros)
+                .field("maxMicros", p.maxMicros)
+                .endObject();
+    }
+
+    private void writeCache(JsonWriter json, String name, TtlCache.Stats c) throws IOException {
+        json.name(name).beginObject()
+                .field("size", c.size)
+                .field("maxSize", c.maxSize)
+                .field("hits", c.hits)
+                .field("misses", c.misses)
+                .field("evictions", c.evictions)
+                .field("staleRejected", c.staleRejected)
+                .endObject();
+    }
+
+    private boolean isManager(HttpServletRequest req) {
+        HttpSession s = req.getSession(false);
+        if (s == null) return false;
+        Object role = s.getAttribute(RoutingServlet.SESSION_ROLE);
+        return role != null && "MANAGER".equalsIgnoreCase(role.toString());
+    }
+}
@@ -3,9 +3,16 @@ package com.example.coffecappunipa.web.servlet;
 import ch.qos.logback.classic.encoder.JsonEncoder;
 import com.example.coffecappunipa.persistence.dao.DistributorAdminDAO;
 import com.example.coffecappunipa.persistence.dao.MaintainerDAO;
+import com.example.coffecappunipa.persistence.dao.MonitorOutboxDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
 import com.example.coffecappunipa.persistence.util.DbConnectionManager;
-import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.security.DistributorTokenCache;
+import com.example.coffecappunipa.web.json.JsonWriter;
+import com.example.coffecappunipa.web.monitor.MonitorOutboxDispatcher;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import com.example.coffecappunipa.web.monitor.MonitorStatusSnapshot;
+import com.example.coffecappunipa.web.push.DistributorEvents;
+import com.example.coffecappunipa.web.xml.DistributorsStateXmlCache;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.*;
@@ -14,6 +21,7 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -111,22 +119,18 @@ public class ManagerServlet extends HttpServlet {
         try {
             List<MaintainerDAO.MaintainerRow> list = maintainerDAO.findAllWithProfile();
 
-            StringBuilder json = new StringBuilder();
-            json.append("{\"ok\":true,\"items\":[");
-            for (int i = 0; i < list.size(); i++) {
-                var m = list.get(i);
-                if (i > 0) json.append(",");
-                json.append("{")
-                        .append("\"id\":\"").append(escJson(m.maintainerId)).append("\",")
-                        .append("\"nome\":\"").append(escJson(m.firstName)).append("\",")
-                        .append("\"cognome\":\"").append(escJson(m.lastName)).append("\",")
-                        .append("\"email\":\"").append(escJson(m.email)).append("\",")
-                        .append("\"telefono\":\"").append(escJson(m.phone)).append("\"")
-                        .append("}");
+            JsonWriter json = startJson(resp, 200);
+            json.beginObject().field("ok", true).name("items").beginArray();
+            for (var m : list) {
+                json.beginObject()
+                        .field("id", m.maintainerId)
+                        .field("nome", m.firstName)
+                        .field("cognome", m.lastName)
+                        .field("email", m.email)
+                        .field("telefono", m.phone)
+                        .endObject();
             }
-            json.append("]}");
-
-            writeJson(resp, 200, json.toString());
+            json.endArray().endObject();
 
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -185,7 +189,8 @@ public class ManagerServlet extends HttpServlet {
     private void handleDistributorsList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         String qRaw = trim(req.getParameter("q"));
 
-        Map<String, String> monitorStatuses = MonitorClient.fetchRuntimeStatuses();
+        // lettura in memoria (fotografia aggiornata in background): l'unica attesa della richiesta è la query sotto
+        Map<String, String> monitorStatuses = HeartbeatTracker.overlay(MonitorStatusSnapshot.get());
 
         String base =
                 "SELECT code, location_name, status " +
@@ -235,14 +240,11 @@ public class ManagerServlet extends HttpServlet {
             }
 
             try (ResultSet rs = ps.executeQuery()) {
-                StringBuilder json = new StringBuilder();
-                json.append("{\"ok\":true,\"items\":[");
-                boolean first = true;
+                // righe scritte direttamente sulla risposta mentre si scorre il ResultSet
+                JsonWriter json = startJson(resp, 200);
+                json.beginObject().field("ok", true).name("items").beginArray();
 
                 while (rs.next()) {
-                    if (!first) json.append(",");
-                    first = false;
-
                     String code = rs.getString("code");
                     String loc = rs.getString("location_name");
                     String dbStatus = rs.getString("status");
@@ -250,19 +252,20 @@ public class ManagerServlet extends HttpServlet {
                     String runtime = monitorStatuses.get(code);
                     String ui = mergedDbToUi(dbStatus, runtime);
 
-                    json.append("{")
-                            .append("\"id\":\"").append(escJson(code)).append("\",")
-                            .append("\"luogo\":\"").append(escJson(loc)).append("\",")
-                            .append("\"stato\":\"").append(escJson(ui)).append("\"")
-                            .append("}");
+                    json.beginObject()
+                            .field("id", code)
+                            .field("luogo", loc)
+                            .field("stato", ui)
+                            .endObject();
                 }
 
-                json.append("]}");
-                writeJson(resp, 200, json.toString());
+                json.endArray().endObject();
             }
 
         } catch (SQLException e) {
             e.printStackTrace();
+            // risposta parziale ancora nel buffer: si scarta prima di scrivere l'errore
+            if (!resp.isCommitted()) resp.resetBuffer();
             writeJson(resp, 500, "{\"ok\":false,\"message\":\"errore DB\"}");
         }
     }
@@ -301,16 +304,19 @@ public class ManagerServlet extends HttpServlet {
         }
 
         try {
-            long distId = distributorAdminDAO.createDistributorWithSupplies(id, loc, statusEnum);
-
-            // Allineo il monitor al DB (best-effort)
-            MonitorClient.upsertDistributor(id, loc, statusEnum);
+            // Allineamento del monitor via outbox (stessa transazione dell'insert)
+            List<MonitorOutboxDAO.Message> monitor = new ArrayList<>();
+            monitor.add(MonitorOutboxDAO.Message.upsert(id, loc, statusEnum));
 
             //FIX: heartbeat SOLO se lo stato è ACTIVE
             if (isActive(statusEnum)) {
-                MonitorClient.heartbeat(id);
+                monitor.add(MonitorOutboxDAO.Message.heartbeat(id));
             }
 
+            long distId = distributorAdminDAO.createDistributorWithSupplies(id, loc, statusEnum, monitor);
+            MonitorOutboxDispatcher.wakeUp();
+            DistributorsStateXmlCache.invalidate();
+
             writeJson(resp, 201, "{\"ok\":true,\"distributorId\":" + distId + "}");
 
         } catch (DaoException ex) {
@@ -327,8 +333,11 @@ public class ManagerServlet extends HttpServlet {
         }
 
         try {
-            distributorAdminDAO.deleteDistributorByCode(id);
-            MonitorClient.deleteDistributor(id);
+            distributorAdminDAO.deleteDistributorByCode(id, List.of(MonitorOutboxDAO.Message.delete(id)));
+            DistributorTokenCache.invalidateCode(id);
+            MonitorOutboxDispatcher.wakeUp();
+            DistributorsStateXmlCache.invalidate();
+            DistributorEvents.publish(id, DistributorEvents.STATUS);
             writeJson(resp, 200, "{\"ok\":true}");
         } catch (DaoException ex) {
             ex.printStackTrace();
@@ -352,17 +361,20 @@ public class ManagerServlet extends HttpServlet {
         }
 
         try {
-            // 1) DB principale
-            distributorAdminDAO.updateStatusByCode(id, statusEnum);
-
-            // 2) Monitor (best-effort): aggiorna lo stato
-            MonitorClient.updateStatus(id, statusEnum);
+            // Monitor: aggiornamento stato accodato nell'outbox, nella stessa transazione del DB principale
+            List<MonitorOutboxDAO.Message> monitor = new ArrayList<>();
+            monitor.add(MonitorOutboxDAO.Message.status(id, statusEnum));
 
             // FIX: se imposto ACTIVE, devo “ravvivare” il runtime del monitor
             if (isActive(statusEnum)) {
-                MonitorClient.heartbeat(id);
+                monitor.add(MonitorOutboxDAO.Message.heartbeat(id));
             }
 
+            distributorAdminDAO.updateStatusByCode(id, statusEnum, monitor);
+            MonitorOutboxDispatcher.wakeUp();
+            DistributorsStateXmlCache.invalidate();
+            DistributorEvents.publish(id, DistributorEvents.STATUS);
+
             writeJson(resp, 200, "{\"ok\":true}");
 
         } catch (DaoException ex) {
@@ -390,6 +402,14 @@ public class ManagerServlet extends HttpServlet {
         resp.getWriter().write(payload);
     }
 
+    private JsonWriter startJson(HttpServletResponse resp, int status) throws IOException {
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "no-store");
+        resp.setStatus(status);
+        return JsonWriter.of(resp);
+    }
+
     private String trim(String s) { return s == null ? null : s.trim(); }
     private boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
 
@@ -401,9 +421,4 @@ public class ManagerServlet extends HttpServlet {
                 .replace("\"", "&quot;")
                 .replace("'", "&apos;");
     }
-
-    private String escJson(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
 }
@@ -1,28 +1,31 @@
 package com.example.coffecappunipa.web.servlet;
 
+import com.example.coffecappunipa.web.monitor.MonitorClient;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@WebServlet(urlPatterns = {"/api/monitor/map"})
+/**
+ * Proxy di GET /map del monitor. Servlet async: mentre si aspetta il monitor il thread del container
+ * torna al pool (la risposta la scrive la continuazione di HttpClient.sendAsync).
+ */
+@WebServlet(urlPatterns = {"/api/monitor/map"}, asyncSupported = true)
 public class MonitorMapProxyServlet extends HttpServlet {
 
-    // URL REALE (corretto) del monitor
-    private static final String MONITOR_MAP_URL =
-            "http://localhost:8081/CoffeeMonitor_war_exploded/api/monitor/map";
+    // rete di sicurezza oltre la scadenza della chiamata (MONITOR_CALL_TIMEOUT_MS): di norma risponde prima il future
+    private static final long ASYNC_TIMEOUT_MS = MonitorClient.getStats().callTimeoutMs + 2_000;
 
-    private final HttpClient client = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(2))
-            .build();
+    // Ultima risposta buona del monitor: servita (marcata come stale) quando il monitor non risponde
+    private static volatile String lastGoodBody;
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -30,21 +33,67 @@ public class MonitorMapProxyServlet extends HttpServlet {
         resp.setContentType("application/json");
         resp.setHeader("Cache-Control", "no-store");
 
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(MONITOR_MAP_URL))
-                    .timeout(Duration.ofSeconds(3))
-                    .GET()
-                    .build();
+        if (!req.isAsyncSupported()) {
+            writeBody(resp, MonitorClient.fetchMapJsonAsync().join());
+            return;
+        }
+
+        AsyncContext ctx = req.startAsync(req, resp);
+        ctx.setTimeout(ASYNC_TIMEOUT_MS);
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                // thread del container: il monitor non ha risposto in tempo, si serve l'ultima mappa
+                if (done.compareAndSet(false, true)) finish(ctx, null);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                done.set(true);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
 
-            HttpResponse<String> r = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
 
-            resp.setStatus(r.statusCode());
-            resp.getWriter().write(r.body());
+        // circuit breaker + tetto alle chiamate in volo: con il monitor giù il future è già completato
+        MonitorClient.fetchMapJsonAsync().thenAccept(body -> {
+            if (done.compareAndSet(false, true)) finish(ctx, body);
+        });
+    }
 
-        } catch (Exception e) {
-            // Degrado controllato: monitor giù
+    private void finish(AsyncContext ctx, String body) {
+        try {
+            writeBody((HttpServletResponse) ctx.getResponse(), body);
+        } catch (IOException | IllegalStateException ignored) {
+            // client già andato via
+        } finally {
+            try { ctx.complete(); } catch (IllegalStateException ignored) {}
+        }
+    }
+
+    private void writeBody(HttpServletResponse resp, String body) throws IOException {
+        if (body != null) {
+            lastGoodBody = body;
             resp.setStatus(200);
+            resp.getWriter().write(body);
+            return;
+        }
+
+        // Degrado controllato: monitor giù
+        String last = lastGoodBody;
+        resp.setStatus(200);
+        if (last != null) {
+            resp.setHeader("X-Monitor-Stale", "true");
+            resp.getWriter().write(last);
+        } else {
             resp.getWriter().write("{\"ok\":false,\"items\":[],\"message\":\"monitor_unreachable\"}");
         }
     }
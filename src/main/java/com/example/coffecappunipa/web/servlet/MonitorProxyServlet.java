@@ -1,11 +1,16 @@
 package com.example.coffecappunipa.web.servlet;
 
-import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.persistence.dao.DistributorCodeCache;
+import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.monitor.HeartbeatAggregator;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -26,10 +31,36 @@ public class MonitorProxyServlet extends HttpServlet {
             return;
         }
 
-        // inoltro best-effort al monitor
-        MonitorClient.heartbeat(code.trim());
+        code = code.trim();
+
+        // solo distributori esistenti: un codice inventato non deve entrare né nel tracker né nella coda verso il monitor
+        try {
+            if (DistributorCodeCache.findIdByCode(code) == null) {
+                resp.setStatus(404);
+                resp.getWriter().write("{\"ok\":false,\"message\":\"distributore sconosciuto\"}");
+                return;
+            }
+        } catch (DaoException ex) {
+            ex.printStackTrace();
+            resp.setStatus(500);
+            resp.getWriter().write("{\"ok\":false,\"message\":\"errore DB\"}");
+            return;
+        }
+
+        // la liveness locale (FAULT) la decide solo il distributore stesso, autenticato col suo token:
+        // un altro utente non può tenere "vivo" un distributore qualsiasi
+        if (isDistributor(code)) HeartbeatTracker.beat(code);
+        // inoltro al monitor a blocchi, in background: si risponde subito
+        HeartbeatAggregator.offer(code);
 
         resp.setStatus(200);
         resp.getWriter().write("{\"ok\":true}");
     }
+
+    private boolean isDistributor(String code) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null && auth.isAuthenticated()
+                && auth.getAuthorities().stream().anyMatch(a -> "ROLE_DISTRIBUTOR".equals(a.getAuthority()))
+                && code.equals(String.valueOf(auth.getPrincipal()));
+    }
 }
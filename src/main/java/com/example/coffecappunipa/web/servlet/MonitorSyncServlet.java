@@ -3,8 +3,13 @@ package com.example.coffecappunipa.web.servlet;
 
 import com.example.coffecappunipa.persistence.dao.DistributorDAO;
 import com.example.coffecappunipa.persistence.util.DaoException;
+import com.example.coffecappunipa.web.json.JsonWriter;
 import com.example.coffecappunipa.web.monitor.MonitorClient;
+import com.example.coffecappunipa.web.monitor.MonitorReconciler;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,11 +19,17 @@ import jakarta.servlet.http.HttpSession;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@WebServlet(urlPatterns = {"/api/monitor/sync"})
+/**
+ * Sync manuale DB <- monitor. Servlet async: la GET /map al monitor non occupa un thread del container;
+ * quando arriva la mappa, la parte DB gira su un thread del container (ctx.start).
+ */
+@WebServlet(urlPatterns = {"/api/monitor/sync"}, asyncSupported = true)
 public class MonitorSyncServlet extends HttpServlet {
 
-    private final DistributorDAO distributorDAO = new DistributorDAO();
+    // rete di sicurezza oltre la scadenza della chiamata (MONITOR_CALL_TIMEOUT_MS) e il lavoro sul DB
+    private static final long ASYNC_TIMEOUT_MS = MonitorClient.getStats().callTimeoutMs + 30_000;
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -33,9 +44,61 @@ public class MonitorSyncServlet extends HttpServlet {
             return;
         }
 
-        // 1) PULL dal Monitor
-        Map<String, String> monitorStatuses = MonitorClient.fetchRuntimeStatuses();
+        // 1) PULL dal Monitor (senza bloccare il thread)
+        long requestedAt = System.currentTimeMillis();
+        if (!req.isAsyncSupported()) {
+            apply(resp, MonitorClient.fetchRuntimeStatusesAsync().join(), requestedAt);
+            return;
+        }
+
+        AsyncContext ctx = req.startAsync(req, resp);
+        ctx.setTimeout(ASYNC_TIMEOUT_MS);
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (!done.compareAndSet(false, true)) return;
+                try {
+                    HttpServletResponse r = (HttpServletResponse) ctx.getResponse();
+                    r.setStatus(504);
+                    r.getWriter().write("{\"ok\":false,\"message\":\"timeout sync\"}");
+                } catch (IOException | IllegalStateException ignored) {
+                } finally {
+                    try { ctx.complete(); } catch (IllegalStateException ignored) {}
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                done.set(true);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        MonitorClient.fetchRuntimeStatusesAsync().thenAccept(monitorStatuses -> {
+            if (!done.compareAndSet(false, true)) return;
+            // 2) lavoro sul DB su un thread del container, non su quello di HttpClient
+            ctx.start(() -> {
+                try {
+                    apply((HttpServletResponse) ctx.getResponse(), monitorStatuses, requestedAt);
+                } catch (IOException | IllegalStateException ignored) {
+                    // client già andato via
+                } finally {
+                    try { ctx.complete(); } catch (IllegalStateException ignored) {}
+                }
+            });
+        });
+    }
 
+    private void apply(HttpServletResponse resp, Map<String, String> monitorStatuses, long requestedAt) throws IOException {
         if (monitorStatuses == null || monitorStatuses.isEmpty()) {
             // monitor giù / endpoint errato / JSON non parseabile
             resp.setStatus(502);
@@ -43,18 +106,20 @@ public class MonitorSyncServlet extends HttpServlet {
             return;
         }
 
-        // 2) Apply sul DB principale
+        // Apply sul DB principale: stesso motore della riconciliazione periodica
         try {
-            DistributorDAO.SyncResult r = distributorDAO.applyStatusesFromMonitor(monitorStatuses);
+            DistributorDAO.SyncResult r = MonitorReconciler.runNow(monitorStatuses, requestedAt);
 
             resp.setStatus(200);
-            resp.getWriter().write("{"
-                    + "\"ok\":true,"
-                    + "\"received\":" + monitorStatuses.size() + ","
-                    + "\"updated\":" + r.updated + ","
-                    + "\"missing\":" + r.missing + ","
-                    + "\"invalid\":" + r.invalid
-                    + "}");
+            JsonWriter.of(resp).beginObject()
+                    .field("ok", true)
+                    .field("received", monitorStatuses.size())
+                    .field("updated", r.updated)
+                    .field("unchanged", r.unchanged)
+                    .field("missing", r.missing)
+                    .field("invalid", r.invalid)
+                    .field("elapsedMs", r.elapsedMs)
+                    .endObject();
 
         } catch (DaoException ex) {
             ex.printStackTrace();
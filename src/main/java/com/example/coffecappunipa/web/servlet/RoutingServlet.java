@@ -17,6 +17,8 @@ public class RoutingServlet extends HttpServlet {
     // Chiavi legacy: restano qui solo perché usate altrove (bridge/servlet legacy)
     public static final String SESSION_USERNAME = "username";
     public static final String SESSION_ROLE = "role";
+    // id utente (immutabile), messo in sessione dal bridge al login: evita findByUsername() a ogni richiesta
+    public static final String SESSION_USER_ID = "userId";
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
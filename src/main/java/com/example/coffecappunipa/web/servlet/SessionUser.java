@@ -0,0 +1,54 @@
+package com.example.coffecappunipa.web.servlet;
+
+import com.example.coffecappunipa.persistence.dao.UserDAO;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Identità dell'utente loggato letta dalla sessione (chiavi di RoutingServlet).
+ * L'id lo mette LegacySessionBridgeFilter a ogni richiesta insieme a username e ruolo (e lo toglie se lo username cambia);
+ * per le sessioni senza AppUserDetails viene risolto una volta sola dallo username e poi tenuto in sessione.
+ */
+final class SessionUser {
+
+    private static final UserDAO userDAO = new UserDAO();
+
+    private SessionUser() {}
+
+    static String username(HttpServletRequest req) {
+        HttpSession s = req.getSession(false);
+        if (s == null) return null;
+        Object u = s.getAttribute(RoutingServlet.SESSION_USERNAME);
+        return u == null ? null : u.toString();
+    }
+
+    static String role(HttpServletRequest req) {
+        HttpSession s = req.getSession(false);
+        if (s == null) return null;
+        Object r = s.getAttribute(RoutingServlet.SESSION_ROLE);
+        return r == null ? null : r.toString();
+    }
+
+    /**
+     * Id dell'utente loggato, null se la sessione non è valida o l'utente non esiste più.
+     * @throws com.example.coffecappunipa.persistence.util.DaoException solo nel caso di ripiego sul DB
+     */
+    static Long id(HttpServletRequest req) {
+        HttpSession s = req.getSession(false);
+        if (s == null) return null;
+
+        Object id = s.getAttribute(RoutingServlet.SESSION_USER_ID);
+        if (id instanceof Long l) return l;
+
+        Object u = s.getAttribute(RoutingServlet.SESSION_USERNAME);
+        if (u == null) return null;
+
+        var opt = userDAO.findByUsername(u.toString());
+        if (opt.isEmpty()) return null;
+
+        long resolved = opt.get().getId();
+        s.setAttribute(RoutingServlet.SESSION_USER_ID, resolved);
+        return resolved;
+    }
+}
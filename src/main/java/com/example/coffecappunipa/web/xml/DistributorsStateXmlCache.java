@@ -0,0 +1,160 @@
+package com.example.coffecappunipa.web.xml;
+
+import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+import com.example.coffecappunipa.web.monitor.HeartbeatTracker;
+import com.example.coffecappunipa.web.monitor.MonitorStatusSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * state.xml pre-renderizzato (in chiaro e gzip) con ETag forte calcolato sul contenuto.
+ * Il documento viene rigenerato solo quando serve:
+ * - invalidate() dopo una modifica a distributori / forniture / stati (chiamata dalle servlet che scrivono)
+ * - un distributore è entrato/uscito da FAULT per heartbeat mancanti (HeartbeatTracker chiama invalidate())
+ * - la fotografia del monitor è cambiata (MonitorStatusSnapshot restituisce una nuova istanza solo se cambia)
+ * - il rendering ha più di MAX_AGE_MS (guasti inseriti da fuori dall'app, orari "now" degli HB-FAULT)
+ * Un solo thread rigenera alla volta; gli altri aspettano e ricevono il risultato.
+ */
+public final class DistributorsStateXmlCache {
+
+    private static final long MAX_AGE_MS = envLong("STATE_XML_MAX_AGE_MS", 60_000);
+
+    public static final class Rendered {
+        public final byte[] xml;
+        public final byte[] gzip;
+        public final String etag;     // "hash" (rappresentazione in chiaro)
+        public final String gzipEtag; // "hash-gzip" (ETag forte distinto per la variante compressa)
+        final long generation;
+        final Map<String, String> monitorStatuses;
+        final long builtAtMillis;
+
+        private Rendered(byte[] xml, byte[] gzip, String hash, long generation,
+                         Map<String, String> monitorStatuses, long builtAtMillis) {
+            this.xml = xml;
+            this.gzip = gzip;
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+            this.generation = generation;
+            this.monitorStatuses = monitorStatuses;
+            this.builtAtMillis = builtAtMillis;
+        }
+    }
+
+    private static final DistributorDAO distributorDAO = new DistributorDAO();
+
+    private static final AtomicLong generation = new AtomicLong();
+    private static final ReentrantLock rebuildLock = new ReentrantLock();
+    private static volatile Rendered current;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong rebuilds = new AtomicLong();
+    private static volatile long lastRebuildMs = -1;
+
+    private DistributorsStateXmlCache() {}
+
+    /**
+     * Da chiamare dopo ogni modifica che cambia il contenuto di state.xml.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    public static Rendered get() throws IOException {
+        Map<String, String> monitor = MonitorStatusSnapshot.get();
+
+        Rendered r = current;
+        if (isFresh(r, monitor)) {
+            hits.incrementAndGet();
+            return r;
+        }
+
+        rebuildLock.lock();
+        try {
+            r = current;
+            if (isFresh(r, monitor)) {
+                hits.incrementAndGet();
+                return r;
+            }
+
+            // la generazione si legge PRIMA del rendering: un invalidate() durante il build forza il giro successivo
+            long gen = generation.get();
+            long t0 = System.nanoTime();
+
+            ByteArrayOutputStream xml = new ByteArrayOutputStream(16 * 1024);
+            // FAULT da heartbeat locali sopra la fotografia del monitor (ogni transizione fa invalidate())
+            DistributorsStateXmlWriter.write(xml, distributorDAO, HeartbeatTracker.overlay(monitor));
+            byte[] plain = xml.toByteArray();
+
+            ByteArrayOutputStream gz = new ByteArrayOutputStream(plain.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+                out.write(plain);
+            }
+
+            r = new Rendered(plain, gz.toByteArray(), sha256Hex(plain), gen, monitor, System.currentTimeMillis());
+            current = r;
+            rebuilds.incrementAndGet();
+            lastRebuildMs = (System.nanoTime() - t0) / 1_000_000;
+            return r;
+
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private static boolean isFresh(Rendered r, Map<String, String> monitor) {
+        return r != null
+                && r.generation == generation.get()
+                && r.monitorStatuses == monitor
+                && System.currentTimeMillis() - r.builtAtMillis < MAX_AGE_MS;
+    }
+
+    private static String sha256Hex(byte[] data) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(d, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Stats getStats() {
+        Rendered r = current;
+        Stats s = new Stats();
+        s.hits = hits.get();
+        s.rebuilds = rebuilds.get();
+        s.lastRebuildMs = lastRebuildMs;
+        s.sizeBytes = (r == null) ? 0 : r.xml.length;
+        s.gzipBytes = (r == null) ? 0 : r.gzip.length;
+        s.ageMs = (r == null) ? -1 : System.currentTimeMillis() - r.builtAtMillis;
+        s.maxAgeMs = MAX_AGE_MS;
+        return s;
+    }
+
+    public static class Stats {
+        public long hits;
+        public long rebuilds;
+        public long lastRebuildMs;
+        public int sizeBytes;
+        public int gzipBytes;
+        public long ageMs;
+        public long maxAgeMs;
+    }
+
+    private static long envLong(String k, long def) {
+        String v = System.getenv(k);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
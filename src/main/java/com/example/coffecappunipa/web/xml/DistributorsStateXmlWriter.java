@@ -0,0 +1,153 @@
+package com.example.coffecappunipa.web.xml;
+
+import com.example.coffecappunipa.model.DistributorState;
+import com.example.coffecappunipa.persistence.dao.DistributorDAO;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/**
+ * Scrive stato_generale_distributori (valido per static/data/stato_distributori.xsd) direttamente su uno
+ * stream con StAX: i distributori arrivano uno alla volta dal cursore del DAO e l'escaping lo fa il writer.
+ */
+public final class DistributorsStateXmlWriter {
+
+    private static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+    private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    // thread-safe una volta configurata
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+    private DistributorsStateXmlWriter() {}
+
+    public static void write(OutputStream out, DistributorDAO dao, Map<String, String> monitorStatuses) throws IOException {
+        try {
+            XMLStreamWriter w = FACTORY.createXMLStreamWriter(out, "UTF-8");
+
+            w.writeStartDocument("UTF-8", "1.0");
+            w.writeCharacters("\n");
+            w.writeStartElement("stato_generale_distributori");
+            w.writeNamespace("xsi", XSI);
+            w.writeAttribute("xsi", XSI, "noNamespaceSchemaLocation", "stato_distributori.xsd");
+            w.writeCharacters("\n\n");
+
+            dao.streamStatesForXml(d -> {
+                try {
+                    writeDistributor(w, d, monitorStatuses.get(d.getCode()));
+                } catch (XMLStreamException e) {
+                    throw new IOException("Errore scrittura state.xml", e);
+                }
+            });
+
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndDocument();
+            w.flush();
+            w.close();
+
+        } catch (XMLStreamException e) {
+            throw new IOException("Errore scrittura state.xml", e);
+        }
+    }
+
+    private static void writeDistributor(XMLStreamWriter w, DistributorState d, String runtime) throws XMLStreamException {
+        String dbStatus = d.getStatus();
+        boolean runtimeFault = "FAULT".equalsIgnoreCase(runtime);
+
+        String xmlOperational;
+        if ("MAINTENANCE".equalsIgnoreCase(dbStatus)) {
+            xmlOperational = "manutenzione";
+        } else if (runtimeFault) {
+            xmlOperational = "disattivo";
+        } else {
+            xmlOperational = toXmlOperationalStatus(dbStatus);
+        }
+
+        w.writeCharacters("    ");
+        w.writeStartElement("distributore");
+        w.writeAttribute("id", nn(d.getCode()));
+        w.writeCharacters("\n");
+
+        element(w, 2, "locazione", nn(d.getLocationName()));
+        element(w, 2, "stato_operativo", xmlOperational);
+
+        w.writeCharacters("        ");
+        w.writeStartElement("livelli_forniture");
+        w.writeCharacters("\n");
+        element(w, 3, "caffe_gr", Integer.toString(d.getCoffeeLevel()));
+        element(w, 3, "latte_lt", d.getMilkLevel() + ".0");
+        element(w, 3, "cioccolata_gr", "0");
+        element(w, 3, "te_gr", "0");
+        element(w, 3, "zucchero_gr", Integer.toString(d.getSugarLevel()));
+        element(w, 3, "bicchieri_num", Integer.toString(d.getCupsLevel()));
+        w.writeCharacters("        ");
+        w.writeEndElement();
+        w.writeCharacters("\n");
+
+        boolean hasDbFaults = !d.getFaults().isEmpty();
+        boolean injectHeartbeatFault = runtimeFault && !hasDbFaults && !"MAINTENANCE".equalsIgnoreCase(dbStatus);
+
+        w.writeCharacters("        ");
+        w.writeStartElement("guasti");
+        w.writeCharacters("\n");
+
+        for (DistributorState.FaultItem f : d.getFaults()) {
+            String dt = (f.getCreatedAt() == null)
+                    ? LocalDateTime.now().format(ISO)
+                    : f.getCreatedAt().format(ISO);
+            fault(w, f.getCode(), nn(f.getDescription()), dt);
+        }
+
+        if (injectHeartbeatFault) {
+            fault(w, "HB-FAULT", "Heartbeat assente oltre la soglia (guasto rilevato dal monitor)",
+                    LocalDateTime.now().format(ISO));
+        }
+
+        w.writeCharacters("        ");
+        w.writeEndElement();
+        w.writeCharacters("\n    ");
+        w.writeEndElement();
+        w.writeCharacters("\n\n");
+    }
+
+    private static void fault(XMLStreamWriter w, String code, String description, String detectedAt) throws XMLStreamException {
+        w.writeCharacters("            ");
+        w.writeStartElement("guasto");
+        w.writeCharacters("\n");
+        element(w, 4, "codice", code);
+        element(w, 4, "descrizione", description);
+        element(w, 4, "data_rilevazione", detectedAt);
+        w.writeCharacters("            ");
+        w.writeEndElement();
+        w.writeCharacters("\n");
+    }
+
+    private static void element(XMLStreamWriter w, int level, String name, String text) throws XMLStreamException {
+        w.writeCharacters("    ".repeat(level));
+        w.writeStartElement(name);
+        w.writeCharacters(text);
+        w.writeEndElement();
+        w.writeCharacters("\n");
+    }
+
+    private static String toXmlOperationalStatus(String dbStatus) {
+        if (dbStatus == null) return "disattivo";
+        String v = dbStatus.trim().toUpperCase();
+        return switch (v) {
+            case "ACTIVE" -> "attivo";
+            case "MAINTENANCE" -> "manutenzione";
+            case "FAULT" -> "disattivo";
+            default -> "disattivo";
+        };
+    }
+
+    private static String nn(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -1,10 +1,13 @@
 // /js/distributor.poll.js
 
 // --- CONFIG ---
-const MONITOR_BASE_URL = "http://localhost:8081/CoffeeMonitor_war_exploded";
+// Long-poll: il server tiene aperta la richiesta finché lo stato cambia (o fino a LONG_POLL_WAIT_S)
+const LONG_POLL_WAIT_S = 25;
+const POLL_RETRY_MS = 3000;
 
 let currentUser = null;
 let messageTimeout = null;
+let lastStateVersion = null;
 
 // MEMORIA CONDIVISA:
 // Questa variabile serve da "ponte" tra pollConnectedUser (che scopre lo stato)
@@ -116,22 +119,32 @@ function renderConnectedState(connected, user, machineStatus) {
 }
 
 /**
- * POLL: Chiede al server stato e utente
+ * POLL: Chiede al server stato e utente.
+ * Con waitSeconds > 0 (e una version già nota) è un long-poll: il server risponde solo quando
+ * lo stato cambia rispetto a lastStateVersion o allo scadere dell'attesa.
+ * Ritorna false in caso di errore.
  */
-async function pollConnectedUser() {
+async function pollConnectedUser(waitSeconds = 0) {
     const code = getDistributorCode();
 
     if (!code) {
         console.warn("Codice mancante. Redirect al boot.");
         window.location.replace("boot.html");
-        return;
+        return false;
+    }
+
+    let url = `/api/distributor/poll?code=${encodeURIComponent(code)}`;
+    if (waitSeconds > 0 && lastStateVersion) {
+        url += `&since=${encodeURIComponent(lastStateVersion)}&wait=${waitSeconds}`;
     }
 
     try {
-        const data = await apiGetJSON(`/api/distributor/poll?code=${encodeURIComponent(code)}`);
+        const data = await apiGetJSON(url);
 
         if (!data || !data.ok) throw new Error("Risposta server non valida");
 
+        lastStateVersion = data.version || null;
+
         const status = data.status || "ACTIVE";
 
         // renderConnectedState aggiornerà la variabile globale currentMachineStatus
@@ -145,10 +158,26 @@ async function pollConnectedUser() {
             }, status);
         }
 
+        return true;
+
     } catch (err) {
         console.error("Polling error:", err);
+        lastStateVersion = null;
         renderConnectedState(false);
         showDistMessage("Connessione server persa...", true, 2000);
+        return false;
+    }
+}
+
+/**
+ * Loop di long-poll: appena arriva una risposta si riparte; in caso di errore si attende POLL_RETRY_MS.
+ */
+async function pollLoop() {
+    while (true) {
+        const ok = await pollConnectedUser(LONG_POLL_WAIT_S);
+        if (!ok) {
+            await new Promise(resolve => setTimeout(resolve, POLL_RETRY_MS));
+        }
     }
 }
 
@@ -262,7 +291,7 @@ function handlePurchaseSuccess(res, selectedBtn) {
 }
 
 /**
- * Heartbeat verso Monitoraggio
+ * Heartbeat (il server tiene la liveness e inoltra al Monitoraggio)
  */
 async function sendHeartbeat() {
     const code = getDistributorCode();
@@ -276,12 +305,8 @@ async function sendHeartbeat() {
     }
 
     try {
-        await fetch(`${MONITOR_BASE_URL}/api/monitor/heartbeat`, {
-            method: "POST",
-            headers: { "Content-Type": "application/x-www-form-urlencoded" },
-            body: new URLSearchParams({ code }),
-            cache: "no-cache"
-        });
+        // al nostro server (token nell'header): tiene lui la liveness e inoltra al monitor
+        await apiPostForm("/api/distributor/heartbeat", { code });
         console.log("Heartbeat inviato per " + code);
     } catch (_) { /* ignore */ }
 }
@@ -293,14 +318,13 @@ function escapeHtml(s) {
 // INIT
 document.addEventListener("DOMContentLoaded", () => {
     loadBeveragesIntoGrid();
-    pollConnectedUser();
 
     const btnPurchase = document.getElementById("btn-purchase");
     if (btnPurchase) {
         btnPurchase.addEventListener("click", doPurchase);
     }
 
-    setInterval(pollConnectedUser, 3000);
+    pollLoop();
     setInterval(sendHeartbeat, 60000);
     sendHeartbeat();
 });
\ No newline at end of file
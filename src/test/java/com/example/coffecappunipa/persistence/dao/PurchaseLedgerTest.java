@@ -0,0 +1,109 @@
+package com.example.coffecappunipa.persistence.dao;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Savepoint;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Esiti del group commit senza DB: connessione e passi dell'acquisto sono mock.
+ */
+class PurchaseLedgerTest {
+
+    private Connection conn;
+    private DistributorScreenDAO dao;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        conn = mock(Connection.class);
+        when(conn.setSavepoint()).thenReturn(mock(Savepoint.class));
+        dao = mock(DistributorScreenDAO.class);
+    }
+
+    private PurchaseLedger.Request request(long beverageId) {
+        return new PurchaseLedger.Request(dao, "UNIPA-001", beverageId, 0);
+    }
+
+    @Test
+    void businessErrorRollsBackOnlyThatPurchase() throws Exception {
+        DaoException noCredit = new DaoException(DistributorScreenDAO.ERR_INSUFFICIENT_CREDIT);
+        when(dao.purchaseSteps(any(), anyString(), eq(1L), anyInt())).thenReturn(new BigDecimal("4.50"));
+        when(dao.purchaseSteps(any(), anyString(), eq(2L), anyInt())).thenThrow(noCredit);
+        when(dao.purchaseSteps(any(), anyString(), eq(3L), anyInt())).thenReturn(new BigDecimal("3.80"));
+
+        PurchaseLedger.Request a = request(1), b = request(2), c = request(3);
+        PurchaseLedger.runBatch(List.of(a, b, c), () -> conn);
+
+        assertEquals(new BigDecimal("4.50"), a.result.get());
+        assertEquals(new BigDecimal("3.80"), c.result.get());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> b.result.get());
+        assertSame(noCredit, e.getCause());
+
+        verify(conn, times(1)).rollback(any(Savepoint.class));
+        verify(conn, never()).rollback();
+        verify(conn, times(1)).commit();
+        verify(dao, never()).performPurchaseJdbc(anyString(), anyLong(), anyInt());
+    }
+
+    @Test
+    void commitFailureFailsCallersWithoutReplay() throws Exception {
+        DaoException noCredit = new DaoException(DistributorScreenDAO.ERR_INSUFFICIENT_CREDIT);
+        when(dao.purchaseSteps(any(), anyString(), eq(1L), anyInt())).thenReturn(BigDecimal.ONE);
+        when(dao.purchaseSteps(any(), anyString(), eq(2L), anyInt())).thenThrow(noCredit);
+        doThrow(new SQLTransientConnectionException("connessione persa")).when(conn).commit();
+
+        PurchaseLedger.Request a = request(1), b = request(2);
+        PurchaseLedger.runBatch(List.of(a, b), () -> conn);
+
+        // esito sconosciuto: errore al chiamante, mai un secondo addebito
+        ExecutionException ea = assertThrows(ExecutionException.class, () -> a.result.get());
+        assertInstanceOf(DaoException.class, ea.getCause());
+        assertNotSame(noCredit, ea.getCause());
+        // l'esito di business era già deciso dal savepoint
+        ExecutionException eb = assertThrows(ExecutionException.class, () -> b.result.get());
+        assertSame(noCredit, eb.getCause());
+
+        verify(dao, never()).performPurchaseJdbc(anyString(), anyLong(), anyInt());
+    }
+
+    @Test
+    void technicalErrorBeforeCommitRetriesOneByOne() throws Exception {
+        when(dao.purchaseSteps(any(), anyString(), eq(1L), anyInt())).thenReturn(BigDecimal.ONE);
+        when(dao.purchaseSteps(any(), anyString(), eq(2L), anyInt())).thenThrow(new SQLException("deadlock", "40001"));
+        when(dao.performPurchaseJdbc("UNIPA-001", 1L, 0)).thenReturn(new BigDecimal("1.10"));
+        when(dao.performPurchaseJdbc("UNIPA-001", 2L, 0)).thenReturn(new BigDecimal("2.20"));
+
+        PurchaseLedger.Request a = request(1), b = request(2);
+        PurchaseLedger.runBatch(List.of(a, b), () -> conn);
+
+        verify(conn).rollback();
+        verify(conn, never()).commit();
+        assertEquals(new BigDecimal("1.10"), a.result.get());
+        assertEquals(new BigDecimal("2.20"), b.result.get());
+    }
+
+    @Test
+    void purchaseAfterStopGoesDirectAndDoesNotRestartTheWriter() {
+        when(dao.performPurchaseJdbc("UNIPA-001", 1L, 0)).thenReturn(new BigDecimal("1.10"));
+
+        PurchaseLedger.stop();
+        try {
+            assertEquals(new BigDecimal("1.10"), PurchaseLedger.submit(dao, "UNIPA-001", 1L, 0));
+            assertFalse(PurchaseLedger.getStats().running);
+        } finally {
+            PurchaseLedger.start();
+            PurchaseLedger.stop();
+        }
+    }
+}
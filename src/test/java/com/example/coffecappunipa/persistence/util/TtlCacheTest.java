@@ -0,0 +1,46 @@
+package com.example.coffecappunipa.persistence.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Generazioni di TtlCache: un caricamento partito prima di un'invalidazione non deve rimettere in cache il valore vecchio.
+ */
+class TtlCacheTest {
+
+    @Test
+    void loadRacingInvalidateIsDiscarded() {
+        TtlCache<String, String> cache = new TtlCache<>(10);
+
+        long gen = cache.generation("tok");
+        cache.invalidate("tok"); // arriva mentre il chiamante sta ancora leggendo dal DB
+
+        assertFalse(cache.put("tok", "UNIPA-001", 60, TimeUnit.SECONDS, gen));
+        assertNull(cache.get("tok"));
+        assertEquals(1, cache.getStats().staleRejected);
+    }
+
+    @Test
+    void loadRacingInvalidateIfIsDiscarded() {
+        TtlCache<String, String> cache = new TtlCache<>(10);
+
+        long gen = cache.generation("tok");
+        cache.invalidateIf((k, v) -> "UNIPA-001".equals(v)); // la voce non c'è ancora: vale comunque
+
+        assertFalse(cache.put("tok", "UNIPA-001", 60, TimeUnit.SECONDS, gen));
+        assertNull(cache.get("tok"));
+    }
+
+    @Test
+    void loadWithoutInvalidateIsKept() {
+        TtlCache<String, String> cache = new TtlCache<>(10);
+
+        long gen = cache.generation("tok");
+
+        assertTrue(cache.put("tok", "UNIPA-001", 60, TimeUnit.SECONDS, gen));
+        assertEquals("UNIPA-001", cache.get("tok"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.coffecappunipa.web.json;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Escaping e valori del writer JSON in streaming (documento completo scritto su uno StringWriter).
+ */
+class JsonWriterTest {
+
+    private static String object(String name, String value) throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).beginObject().field(name, value).endObject();
+        return out.toString();
+    }
+
+    @Test
+    void quotesAndBackslash() throws IOException {
+        assertEquals("{\"k\":\"a\\\"b\\\\c\"}", object("k", "a\"b\\c"));
+        assertEquals("{\"q\\\"\":\"x\"}", object("q\"", "x"));
+    }
+
+    @Test
+    void controlCharacters() throws IOException {
+        assertEquals("{\"k\":\"\\n\\r\\t\\b\\f\"}", object("k", "\n\r\t\b\f"));
+        assertEquals("{\"k\":\"a\\u0000b\\u0001\\u001fc\"}", object("k", "a\u0000b\u0001\u001fc"));
+        // 0x20 e oltre passano così come sono
+        assertEquals("{\"k\":\" ~àé€\"}", object("k", " ~àé€"));
+    }
+
+    @Test
+    void lineAndParagraphSeparators() throws IOException {
+        assertEquals("{\"k\":\"a\\u2028b\\u2029c\"}", object("k", "a\u2028b\u2029c"));
+    }
+
+    @Test
+    void nullValues() throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).beginObject()
+                .field("s", (String) null)
+                .field("d", (BigDecimal) null)
+                .name("n").nullValue()
+                .endObject();
+
+        // convenzione dei vecchi escJson(): String null => ""
+        assertEquals("{\"s\":\"\",\"d\":null,\"n\":null}", out.toString());
+    }
+
+    @Test
+    void bigDecimalIsPlain() throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).beginArray()
+                .value(new BigDecimal("4.50"))
+                .value(new BigDecimal("1E+3"))
+                .value(new BigDecimal("-0.05"))
+                .endArray();
+
+        assertEquals("[4.50,1000,-0.05]", out.toString());
+    }
+
+    @Test
+    void commasAndNestingAcrossBufferBoundary() throws IOException {
+        String longText = "x".repeat(10_000) + "\"";
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).beginObject()
+                .field("ok", true)
+                .name("items").beginArray()
+                .beginObject().field("id", 1).endObject()
+                .beginObject().field("id", 2).field("t", longText).endObject()
+                .endArray()
+                .endObject();
+
+        assertEquals("{\"ok\":true,\"items\":[{\"id\":1},{\"id\":2,\"t\":\"" + "x".repeat(10_000) + "\\\"\"}]}",
+                out.toString());
+    }
+}
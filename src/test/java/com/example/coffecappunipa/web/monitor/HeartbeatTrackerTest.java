@@ -0,0 +1,133 @@
+package com.example.coffecappunipa.web.monitor;
+
+import com.example.coffecappunipa.persistence.util.DaoException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ruota temporale del tracker senza thread né DB: orologio e stato dei distributori li decide il test.
+ * Valori di default: timeout 180s, tick 1s.
+ */
+class HeartbeatTrackerTest {
+
+    private static final long TIMEOUT = HeartbeatTracker.getStats().timeoutMs;
+    private static final long TICK = HeartbeatTracker.getStats().tickMs;
+
+    private final Map<String, String> dbStatus = new HashMap<>();
+    private long t0;
+
+    @BeforeEach
+    void setUp() {
+        dbStatus.put("UNIPA-001", "ACTIVE");
+        t0 = System.currentTimeMillis();
+        HeartbeatTracker.startManual(t0, dbStatus::get);
+    }
+
+    @AfterEach
+    void tearDown() {
+        HeartbeatTracker.stop();
+    }
+
+    @Test
+    void noBeatForTimeoutMeansFault() {
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+
+        HeartbeatTracker.advance(t0 + TIMEOUT - TICK);
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+
+        HeartbeatTracker.advance(t0 + TIMEOUT + 2 * TICK);
+        assertTrue(HeartbeatTracker.isFault("UNIPA-001"));
+        assertEquals("FAULT", HeartbeatTracker.overlay(Map.of("UNIPA-001", "ACTIVE")).get("UNIPA-001"));
+    }
+
+    @Test
+    void notActiveInDbIsNeverFault() {
+        dbStatus.put("UNIPA-001", "MAINTENANCE");
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+
+        HeartbeatTracker.advance(t0 + TIMEOUT + 2 * TICK);
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+    }
+
+    @Test
+    void renewalBeforeDeadlineMovesTheRecord() {
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+
+        // già in ruota: il nuovo heartbeat aggiorna solo l'ora, lo spostamento lo fa il tick alla vecchia scadenza
+        long renewed = t0 + TIMEOUT - 10 * TICK;
+        HeartbeatTracker.beat("UNIPA-001", renewed);
+        long rescheduledBefore = HeartbeatTracker.getStats().rescheduled;
+
+        HeartbeatTracker.advance(t0 + TIMEOUT + 2 * TICK);
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+        assertEquals(rescheduledBefore + 1, HeartbeatTracker.getStats().rescheduled);
+
+        HeartbeatTracker.advance(renewed + TIMEOUT + 2 * TICK);
+        assertTrue(HeartbeatTracker.isFault("UNIPA-001"));
+    }
+
+    @Test
+    void beatRacingTheExpiringTickIsNotLost() {
+        long expiryTick = t0 + TIMEOUT + 2 * TICK;
+        AtomicBoolean raced = new AtomicBoolean(false);
+        // l'heartbeat arriva mentre il thread della ruota sta scadendo il record (durante la lettura dello stato dal DB)
+        HeartbeatTracker.startManual(t0, code -> {
+            if (raced.compareAndSet(false, true)) HeartbeatTracker.beat(code, expiryTick);
+            return dbStatus.get(code);
+        });
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+
+        HeartbeatTracker.advance(expiryTick);
+        // la scadenza era già decisa: FAULT per questo tick, ma il record è tornato in attesa
+        assertTrue(raced.get());
+        assertTrue(HeartbeatTracker.isFault("UNIPA-001"));
+
+        HeartbeatTracker.advance(expiryTick + TICK);
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+
+        // di nuovo in ruota: senza altri heartbeat scade ancora
+        HeartbeatTracker.advance(expiryTick + TIMEOUT + 2 * TICK);
+        assertTrue(HeartbeatTracker.isFault("UNIPA-001"));
+    }
+
+    @Test
+    void firstBeatAfterFaultRecovers() {
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+        long faultAt = t0 + TIMEOUT + 2 * TICK;
+        HeartbeatTracker.advance(faultAt);
+        assertTrue(HeartbeatTracker.isFault("UNIPA-001"));
+        long recoveriesBefore = HeartbeatTracker.getStats().recoveries;
+
+        HeartbeatTracker.beat("UNIPA-001", faultAt + 5 * TICK);
+        HeartbeatTracker.advance(faultAt + 6 * TICK);
+
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+        assertEquals(recoveriesBefore + 1, HeartbeatTracker.getStats().recoveries);
+        Map<String, String> monitor = Map.of("UNIPA-001", "ACTIVE");
+        assertSame(monitor, HeartbeatTracker.overlay(monitor));
+    }
+
+    @Test
+    void dbErrorRetriesInsteadOfFault() {
+        HeartbeatTracker.startManual(t0, code -> {
+            throw new DaoException("DB giù");
+        });
+        HeartbeatTracker.beat("UNIPA-001", t0);
+        HeartbeatTracker.advance(t0 + TICK);
+
+        HeartbeatTracker.advance(t0 + TIMEOUT + 2 * TICK);
+        assertFalse(HeartbeatTracker.isFault("UNIPA-001"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.coffecappunipa.web.monitor;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lettore streaming della risposta di GET /map: forme accettate e JSON malformato.
+ */
+class MonitorMapJsonReaderTest {
+
+    private static Map<String, String> read(String json) throws IOException {
+        return MonitorMapJsonReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void membersInEitherOrder() throws IOException {
+        Map<String, String> m = read("[{\"code\":\"UNIPA-001\",\"status\":\"active\"},"
+                + " {\"status\":\"FAULT\", \"location\":\"Aula 3\", \"code\":\"UNIPA-002\"}]");
+
+        assertEquals(Map.of("UNIPA-001", "ACTIVE", "UNIPA-002", "FAULT"), m);
+    }
+
+    @Test
+    void escapesInNamesAndValues() throws IOException {
+        Map<String, String> m = read("[{\"c\\u006fde\":\"UNIPA\\/\\\"7\\\"\",\"status\":\"MAINT\\u0045NANCE\","
+                + "\"note\":\"a\\\\b\\n\\t\"}]");
+
+        assertEquals(Map.of("UNIPA/\"7\"", "MAINTENANCE"), m);
+    }
+
+    @Test
+    void nestedObjectsAreReadOnTheirOwn() throws IOException {
+        Map<String, String> m = read("{\"distributors\":[{\"code\":\"A\",\"status\":\"ACTIVE\","
+                + "\"last\":{\"code\":\"B\",\"status\":\"FAULT\"},\"tags\":[1,-2.5e3,true,null]}],"
+                + "\"meta\":{\"code\":\"C\"},\"status\":\"ok\"}");
+
+        // code/status vanno presi dallo stesso oggetto: "C" (senza status) e lo "status" del documento non si accoppiano
+        assertEquals(Map.of("A", "ACTIVE", "B", "FAULT"), m);
+    }
+
+    @Test
+    void nonStringCodeOrBlankValuesAreSkipped() throws IOException {
+        Map<String, String> m = read("[{\"code\":7,\"status\":\"ACTIVE\"},{\"code\":\" \",\"status\":\"ACTIVE\"},"
+                + "{\"code\":\" X \",\"status\":\" fault \"}]");
+
+        assertEquals(Map.of("X", "FAULT"), m);
+    }
+
+    @Test
+    void emptyBodyAndEmptyArray() throws IOException {
+        assertTrue(read("").isEmpty());
+        assertTrue(read(" [ ] ").isEmpty());
+    }
+
+    @Test
+    void stringsAcrossBufferBoundary() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1_000; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"code\":\"UNIPA-").append(i).append("\",\"status\":\"ACTIVE\"}");
+        }
+        json.append(']');
+
+        Map<String, String> m = read(json.toString());
+        assertEquals(1_000, m.size());
+        assertEquals("ACTIVE", m.get("UNIPA-999"));
+    }
+
+    @Test
+    void malformedInputFails() {
+        String[] bad = {
+                "[{\"code\":\"A\",\"status\":\"ACTIVE\"}",   // array non chiuso
+                "[{\"code\":\"A\" \"status\":\"ACTIVE\"}]",  // virgola mancante
+                "[{code:\"A\"}]",                             // nome senza virgolette
+                "[{\"code\":\"A}]",                           // stringa non terminata
+                "[{\"code\":\"\\x\"}]",                       // escape non valido
+                "[{\"code\":\"\\u12G4\"}]",                   // \\u non esadecimale
+                "[] []",                                      // contenuto dopo la fine
+                "[#]",                                        // carattere inatteso
+                "[".repeat(100) + "]".repeat(100)             // annidamento eccessivo
+        };
+        for (String json : bad) {
+            assertThrows(IOException.class, () -> read(json), json);
+        }
+    }
+}